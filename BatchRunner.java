@@ -0,0 +1,190 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a file of queries against an index, several at a time.
+ *
+ * Every line of the input is one postfix query ("java tutorial &&").
+ * Queries are handed to a fork-join pool as they are read and evaluated
+ * concurrently against the shared index, which is safe since indexes
+ * are read-only and PostingList only uses absolute reads. Results are
+ * written in input order anyway: we keep a window of queries in flight
+ * and always wait for the oldest one before printing, so a slow query
+ * holds up the output but not the other workers, and memory stays
+ * bounded however long the query log is.
+ *
+ * For each query we print the query itself followed by the URLs of the
+ * matching sites, one per line, and an empty line. Malformed queries,
+ * and queries that fail for any other reason, get an error message in
+ * place of the URLs.
+ */
+public final class BatchRunner {
+
+    // Queries in flight per worker thread.
+    private static final int WINDOW = 64;
+
+    private BatchRunner() {}
+
+    /**
+     * Evaluate every query read from in and write the results to out.
+     *
+     * @param index The index to query.
+     * @param in Queries, one per line; empty lines are skipped.
+     * @param out Where the results go.
+     * @param threads Number of worker threads.
+     * @param cache Cache shared by the workers, or null.
+     * @return Throughput and latencies of the run.
+     * @throws IOException If reading the queries fails.
+     */
+    public static Stats run(Index index, BufferedReader in, PrintStream out,
+                            int threads, QueryCache cache) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Deque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+        long[] latencies = new long[64];
+        int n = 0;
+        long start = System.nanoTime();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final String query = line;
+                pending.add(pool.submit(() -> evaluate(index, query, cache)));
+                if (pending.size() >= threads * WINDOW) {
+                    latencies = add(latencies, n++, write(pending.poll(), out));
+                }
+            }
+            while (!pending.isEmpty()) {
+                latencies = add(latencies, n++, write(pending.poll(), out));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+        return new Stats(Arrays.copyOf(latencies, n), System.nanoTime() - start);
+    }
+
+    // What one worker found out about one query.
+    private static final class Result {
+        final String query;
+        final String text;
+        final long nanos;
+
+        Result(String query, String text, long nanos) {
+            this.query = query;
+            this.text = text;
+            this.nanos = nanos;
+        }
+    }
+
+    private static Result evaluate(Index index, String query, QueryCache cache) {
+        long start = System.nanoTime();
+        StringBuilder s = new StringBuilder();
+        try {
+            PostingList.Cursor c = Query.parse(query, index).evaluate(cache).cursor();
+            for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+                s.append(index.site(d)).append('\n');
+            }
+        } catch (RuntimeException e) {
+            // Whatever goes wrong with one query, the batch goes on.
+            String why = e instanceof IllegalArgumentException ? e.getMessage() : e.toString();
+            s.setLength(0);
+            s.append("Invalid query: ").append(why).append('\n');
+        }
+        return new Result(query, s.toString(), System.nanoTime() - start);
+    }
+
+    // Wait for a query, print its results and return its latency.
+    private static long write(Future<Result> f, PrintStream out) throws IOException {
+        Result r;
+        try {
+            r = f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("query failed", e.getCause());
+        }
+        out.print(r.query);
+        out.print('\n');
+        out.print(r.text);
+        out.print('\n');
+        return r.nanos;
+    }
+
+    private static long[] add(long[] a, int i, long x) {
+        if (i == a.length) {
+            a = Arrays.copyOf(a, 2 * a.length);
+        }
+        a[i] = x;
+        return a;
+    }
+
+    /**
+     * Throughput and latency of a batch run.
+     */
+    public static final class Stats {
+        private final long[] latencies;
+        private final long nanos;
+
+        Stats(long[] latencies, long nanos) {
+            this.latencies = latencies;
+            this.nanos = nanos;
+            Arrays.sort(this.latencies);
+        }
+
+        /**
+         * Number of queries run.
+         *
+         * @return Number of queries.
+         */
+        public int queries() {
+            return this.latencies.length;
+        }
+
+        /**
+         * Queries per second over the whole run, from reading the first
+         * query to writing the last result.
+         *
+         * @return Throughput in queries per second.
+         */
+        public double qps() {
+            return this.nanos == 0 ? 0 : this.latencies.length * 1e9 / this.nanos;
+        }
+
+        /**
+         * Latency percentile (nearest rank).
+         *
+         * @param p Percentile between 0 and 100.
+         * @return Latency of a query in nanoseconds such that p percent of
+         *     the queries took at most that long, 0 if there were none.
+         */
+        public long percentile(double p) {
+            if (this.latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p / 100 * this.latencies.length);
+            return this.latencies[Math.max(0, Math.min(rank, this.latencies.length) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d queries in %.3f s, %.1f queries/s, latency p50 %.3f ms,"
+                + " p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                this.queries(), this.nanos / 1e9, this.qps(),
+                this.percentile(50) / 1e6, this.percentile(90) / 1e6,
+                this.percentile(99) / 1e6, this.percentile(100) / 1e6);
+        }
+    }
+}
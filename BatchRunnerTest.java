@@ -0,0 +1,113 @@
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class BatchRunnerTest {
+
+    private static Index index(String crawl) {
+        MemoryIndex.Builder b = new MemoryIndex.Builder();
+        b.read(ByteBuffer.wrap(crawl.getBytes(StandardCharsets.UTF_8)));
+        return b.build();
+    }
+
+    private static String run(Index index, String queries, int threads) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, false, "UTF-8");
+        BatchRunner.Stats stats = BatchRunner.run(index,
+            new BufferedReader(new StringReader(queries)), out, threads, null);
+        assertEquals(queries.split("\n").length, stats.queries());
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void resultsInInputOrder() throws IOException {
+        Index index = index("http://x.com/ a b\nhttp://y.com/ b c\n");
+        String queries = "a\nb\nc\na c ||\na c &&\nb c &&\n";
+        String expected = "a\nhttp://x.com/\n\n"
+            + "b\nhttp://x.com/\nhttp://y.com/\n\n"
+            + "c\nhttp://y.com/\n\n"
+            + "a c ||\nhttp://x.com/\nhttp://y.com/\n\n"
+            + "a c &&\n\n"
+            + "b c &&\nhttp://y.com/\n\n";
+        assertEquals(expected, run(index, queries, 1));
+        assertEquals(expected, run(index, queries, 4));
+    }
+
+    @Test
+    public void manyQueriesManyThreads() throws IOException {
+        StringBuilder crawl = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            crawl.append("http://site").append(i).append(".com/ w").append(i % 7)
+                .append(" w").append(i % 11).append('\n');
+        }
+        Index index = index(crawl.toString());
+        StringBuilder queries = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            queries.append('w').append(i % 7).append(" w").append(i % 11).append(" &&\n");
+        }
+        assertEquals(run(index, queries.toString(), 1), run(index, queries.toString(), 8));
+    }
+
+    @Test
+    public void invalidQueriesAreReported() throws IOException {
+        Index index = index("http://x.com/ a\n");
+        String out = run(index, "a &&\na\n", 2);
+        assertEquals(true, out.startsWith("a &&\nInvalid query: "));
+        assertEquals(true, out.endsWith("a\nhttp://x.com/\n\n"));
+    }
+
+    @Test
+    public void failingQueriesAreReported() throws IOException {
+        Index good = index("http://x.com/ a\n");
+        Index index = new Index() {
+            @Override
+            public PostingList postings(String term) {
+                if (term.equals("boom")) {
+                    throw new IllegalStateException("boom");
+                }
+                return good.postings(term);
+            }
+
+            @Override
+            public List<String> terms(String prefix) {
+                return good.terms(prefix);
+            }
+
+            @Override
+            public String site(int doc) {
+                return good.site(doc);
+            }
+
+            @Override
+            public int numSites() {
+                return good.numSites();
+            }
+
+            @Override
+            public int numTerms() {
+                return good.numTerms();
+            }
+        };
+        String out = run(index, "a boom ||\na\n", 2);
+        assertEquals(true, out.startsWith("a boom ||\nInvalid query: "));
+        assertEquals(true, out.endsWith("a\nhttp://x.com/\n\n"));
+    }
+
+    @Test
+    public void percentiles() {
+        BatchRunner.Stats s = new BatchRunner.Stats(new long[] {5, 1, 4, 2, 3, 6, 7, 8, 9, 10}, 1000000000L);
+        assertEquals(10, s.queries());
+        assertEquals(5, s.percentile(50));
+        assertEquals(9, s.percentile(90));
+        assertEquals(10, s.percentile(99));
+        assertEquals(1, s.percentile(0));
+        assertEquals(10.0, s.qps(), 1e-9);
+    }
+}
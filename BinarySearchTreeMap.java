@@ -1,16 +1,29 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.NoSuchElementException;
 import java.lang.Math;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
- * Ordered maps implemented as (basic) binary search trees.
+ * Ordered maps implemented as AVL trees.
  *
- * These BSTs are *not* balanced so all operations (except for size) are
- * O(n) in the worst case. Iterators operate on a copy of the keys, so
- * changing the tree will not change iterations in progress. (Iterating
- * over the tree directly would require a "threaded" representation, a
- * much more complicated beast.)
+ * After every insert and remove we walk back up the path we came down
+ * and rotate wherever the heights of two sibling subtrees differ by more
+ * than one. That keeps the height below 1.44 log n, so all operations
+ * (except for size, which is O(1)) are O(log n) no matter in which order
+ * keys arrive; in particular sorted input, which turns a plain BST into a
+ * linked list, is fine. It also means the recursive helpers below never
+ * get deep enough to overflow the stack.
+ *
+ * Iterators walk the tree directly, keeping the path to the next key on
+ * a stack, so they use O(log n) memory and cost nothing for the keys
+ * they never get to. Changing the tree (other than through put()) while
+ * iterating makes the iterator throw a ConcurrentModificationException.
  *
  * @param <K> Type for keys.
  * @param <V> Type for values.
@@ -19,32 +32,39 @@ public class BinarySearchTreeMap<K extends Comparable<? super K>, V>
     implements OrderedMap<K, V> {
 
     // Inner node class, each holds a key (which is what we sort the
-    // BST by) as well as a value. We don't need a parent pointer as
-    // long as we use recursive insert/remove helpers.
+    // BST by) as well as a value, and the height of the subtree it is
+    // the root of. We don't need a parent pointer as long as we use
+    // recursive insert/remove helpers.
     private class Node {
         Node left;
         Node right;
         K key;
         V value;
+        int height;
 
         // Constructor to make node creation easier to read.
         Node(K k, V v) {
-            // left and right default to null
+            // left and right default to null, a leaf has height 1
             this.key = k;
             this.value = v;
+            this.height = 1;
         }
 
         // Just for debugging purposes.
         public String toString() {
             return "Node<key: " + this.key
                 + "; value: " + this.value
+                + "; height: " + this.height
                 + ">";
         }
     }
 
     private Node root;
     private int size;
+    private int modCount;
     private StringBuilder stringBuilder;
+    // Node that the last upsert() found or added.
+    private Node touched;
 
     @Override
     public int size() {
@@ -102,12 +122,70 @@ public class BinarySearchTreeMap<K extends Comparable<? super K>, V>
         return n.value;
     }
 
+    // Height of subtree rooted at given node, 0 for the empty tree.
+    private int height(Node n) {
+        return n == null ? 0 : n.height;
+    }
+
+    // Recompute height of given node from its children.
+    private void update(Node n) {
+        n.height = 1 + Math.max(this.height(n.left), this.height(n.right));
+    }
+
+    // Left is higher than right by how much?
+    private int balance(Node n) {
+        return this.height(n.left) - this.height(n.right);
+    }
+
+    // Rotate given node down to the right, return its left child which
+    // replaces it.
+    private Node rotateRight(Node n) {
+        Node l = n.left;
+        n.left = l.right;
+        l.right = n;
+        this.update(n);
+        this.update(l);
+        return l;
+    }
+
+    // Rotate given node down to the left, return its right child which
+    // replaces it.
+    private Node rotateLeft(Node n) {
+        Node r = n.right;
+        n.right = r.left;
+        r.left = n;
+        this.update(n);
+        this.update(r);
+        return r;
+    }
+
+    // Fix up the height of given node and restore the AVL property if
+    // its subtrees are more than one apart; return the (possibly new)
+    // root of the subtree. The children are assumed to be balanced.
+    private Node rebalance(Node n) {
+        this.update(n);
+        int b = this.balance(n);
+        if (b > 1) {
+            if (this.balance(n.left) < 0) {
+                n.left = this.rotateLeft(n.left);
+            }
+            return this.rotateRight(n);
+        }
+        if (b < -1) {
+            if (this.balance(n.right) > 0) {
+                n.right = this.rotateRight(n.right);
+            }
+            return this.rotateLeft(n);
+        }
+        return n;
+    }
+
     // Insert given key and value into subtree rooted at given node;
     // return changed subtree with new node added. Unlike in find()
     // above, doing this recursively *has* benefits: First we get
     // away with simpler code that doesn't need parent pointers,
-    // second the recursive structure makes it easier to add fancy
-    // rebalancing code later.
+    // second the recursive structure makes it easy to rebalance
+    // on the way back up.
     private Node insert(Node n, K k, V v) {
         if (n == null) {
             return new Node(k, v);
@@ -122,7 +200,7 @@ public class BinarySearchTreeMap<K extends Comparable<? super K>, V>
             throw new IllegalArgumentException("duplicate key " + k);
         }
 
-        return n;
+        return this.rebalance(n);
     }
 
     @Override
@@ -132,6 +210,134 @@ public class BinarySearchTreeMap<K extends Comparable<? super K>, V>
         }
         this.root = this.insert(this.root, k, v);
         this.size++;
+        this.modCount++;
+    }
+
+    // Find the node with the given key in the subtree rooted at given
+    // node, or add one with the value f makes; return the (possibly
+    // changed) subtree and leave the node in touched. If f throws we
+    // unwind before any link was changed, so the tree stays as it was.
+    private Node upsert(Node n, K k, Function<? super K, ? extends V> f) {
+        if (n == null) {
+            int expected = this.modCount;
+            Node added = new Node(k, f.apply(k));
+            if (this.modCount != expected) {
+                throw new ConcurrentModificationException();
+            }
+            this.size++;
+            this.modCount++;
+            this.touched = added;
+            return added;
+        }
+
+        int cmp = k.compareTo(n.key);
+        if (cmp < 0) {
+            n.left = this.upsert(n.left, k, f);
+        } else if (cmp > 0) {
+            n.right = this.upsert(n.right, k, f);
+        } else {
+            this.touched = n;
+            return n;
+        }
+
+        return this.rebalance(n);
+    }
+
+    @Override
+    public V computeIfAbsent(K k, Function<? super K, ? extends V> f) {
+        if (k == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        this.root = this.upsert(this.root, k, f);
+        V v = this.touched.value;
+        this.touched = null;
+        return v;
+    }
+
+    @Override
+    public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+        if (k == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        int before = this.size;
+        this.root = this.upsert(this.root, k, key -> v);
+        Node n = this.touched;
+        this.touched = null;
+        if (this.size == before) {
+            n.value = f.apply(n.value, v);
+        }
+        return n.value;
+    }
+
+    // Into an empty tree, keys that come in ascending order (as they do
+    // from another ordered map) are put into a perfectly balanced tree
+    // directly, in O(n) instead of O(n log n) with rotations. Values are
+    // collected along with the keys; from another tree we walk its nodes
+    // instead of looking up every key in it.
+    @Override
+    @SuppressWarnings("unchecked")
+    public void insertAll(Map<K, V> other) {
+        if (this.root != null) {
+            OrderedMap.super.insertAll(other);
+            return;
+        }
+        ArrayList<K> keys = new ArrayList<K>(other.size());
+        ArrayList<V> values = new ArrayList<V>(other.size());
+        if (other instanceof BinarySearchTreeMap) {
+            ((BinarySearchTreeMap<K, V>) other).entries(keys, values);
+        } else {
+            for (K k : other) {
+                if (k == null) {
+                    throw new IllegalArgumentException("cannot handle null key");
+                }
+                if (!keys.isEmpty() && keys.get(keys.size() - 1).compareTo(k) >= 0) {
+                    OrderedMap.super.insertAll(other);
+                    return;
+                }
+                keys.add(k);
+                values.add(other.get(k));
+            }
+        }
+        this.root = this.build(keys, values, 0, keys.size());
+        this.size = keys.size();
+        this.modCount++;
+    }
+
+    // Keys and values of all nodes, in order.
+    private void entries(List<K> keys, List<V> values) {
+        Deque<Node> stack = new ArrayDeque<Node>();
+        Node n = this.root;
+        while (n != null || !stack.isEmpty()) {
+            for (; n != null; n = n.left) {
+                stack.push(n);
+            }
+            n = stack.pop();
+            keys.add(n.key);
+            values.add(n.value);
+            n = n.right;
+        }
+    }
+
+    // Balanced tree of the keys from lo (inclusive) to hi.
+    private Node build(List<K> keys, List<V> values, int lo, int hi) {
+        if (lo >= hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node n = new Node(keys.get(mid), values.get(mid));
+        n.left = this.build(keys, values, lo, mid);
+        n.right = this.build(keys, values, mid + 1, hi);
+        this.update(n);
+        return n;
+    }
+
+    @Override
+    public List<V> getAll(Iterable<? extends K> keys) {
+        List<V> values = new ArrayList<V>();
+        for (K k : keys) {
+            values.add(this.findForSure(k).value);
+        }
+        return values;
     }
 
     // Return node with maximum key in subtree rooted at given node.
@@ -161,12 +367,12 @@ public class BinarySearchTreeMap<K extends Comparable<? super K>, V>
         n.key = max.key;
         n.value = max.value;
         n.left = this.remove(n.left, max.key);
-        return n;
+        return this.rebalance(n);
     }
 
     // Remove node with given key from subtree rooted at given node;
     // return changed subtree with given key missing. (Again doing this
-    // recursively makes it easier to add fancy rebalancing code later.)
+    // recursively lets us rebalance on the way back up.)
     private Node remove(Node n, K k) {
         if (n == null) {
             throw new IllegalArgumentException("cannot find key " + k);
@@ -179,11 +385,11 @@ public class BinarySearchTreeMap<K extends Comparable<? super K>, V>
             n.right = this.remove(n.right, k);
         } else {
             // Found node where key has to disappear, call helper method
-            // to handle all the cases.
-            n = this.remove(n);
+            // to handle all the cases; it rebalances by itself.
+            return this.remove(n);
         }
 
-        return n;
+        return this.rebalance(n);
     }
 
     @Override
@@ -195,25 +401,134 @@ public class BinarySearchTreeMap<K extends Comparable<? super K>, V>
         V v = this.findForSure(k).value;
         this.root = this.remove(this.root, k);
         this.size--;
+        this.modCount++;
         return v;
     }
 
-    // Recursively add keys from subtree rooted at given node into the
-    // given list in order.
-    private void iteratorHelper(Node n, List<K> keys) {
-        if (n == null) {
-            return;
+    // In-order iterator over the keys in [from, to), where a null bound
+    // means unbounded. Instead of a parent pointer we keep the path of
+    // nodes whose keys we still have to visit on an explicit stack: that
+    // is O(log n) extra memory and nothing is visited before it's asked
+    // for. Fails fast if the tree changes structurally under us.
+    private class InOrderIterator implements Iterator<K> {
+        private final int expected = BinarySearchTreeMap.this.modCount;
+        private final Deque<Node> stack = new ArrayDeque<Node>();
+        private final K to;
+
+        InOrderIterator(K from, K to) {
+            this.to = to;
+            // Push the path to the first key >= from; nodes we go right
+            // at are smaller than from and are skipped with their left
+            // subtrees.
+            Node n = BinarySearchTreeMap.this.root;
+            while (n != null) {
+                if (from == null || from.compareTo(n.key) <= 0) {
+                    this.stack.push(n);
+                    n = n.left;
+                } else {
+                    n = n.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.stack.isEmpty()
+                && (this.to == null || this.stack.peek().key.compareTo(this.to) < 0);
+        }
+
+        @Override
+        public K next() {
+            if (BinarySearchTreeMap.this.modCount != this.expected) {
+                throw new ConcurrentModificationException();
+            }
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node n = this.stack.pop();
+            for (Node c = n.right; c != null; c = c.left) {
+                this.stack.push(c);
+            }
+            return n.key;
         }
-        this.iteratorHelper(n.left, keys);
-        keys.add(n.key);
-        this.iteratorHelper(n.right, keys);
     }
 
     @Override
     public Iterator<K> iterator() {
-        List<K> keys = new ArrayList<K>();
-        this.iteratorHelper(this.root, keys);
-        return keys.iterator();
+        return new InOrderIterator(null, null);
+    }
+
+    @Override
+    public K first() {
+        if (this.root == null) {
+            return null;
+        }
+        Node n = this.root;
+        while (n.left != null) {
+            n = n.left;
+        }
+        return n.key;
+    }
+
+    @Override
+    public K last() {
+        if (this.root == null) {
+            return null;
+        }
+        return this.max(this.root).key;
+    }
+
+    @Override
+    public K floor(K k) {
+        if (k == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        // Every time we go right the current node is a candidate, and
+        // the last candidate is the closest one.
+        K best = null;
+        Node n = this.root;
+        while (n != null) {
+            int cmp = k.compareTo(n.key);
+            if (cmp < 0) {
+                n = n.left;
+            } else if (cmp > 0) {
+                best = n.key;
+                n = n.right;
+            } else {
+                return n.key;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public K ceiling(K k) {
+        if (k == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        // Mirror image of floor().
+        K best = null;
+        Node n = this.root;
+        while (n != null) {
+            int cmp = k.compareTo(n.key);
+            if (cmp > 0) {
+                n = n.right;
+            } else if (cmp < 0) {
+                best = n.key;
+                n = n.left;
+            } else {
+                return n.key;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Iterable<K> range(K from, K to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        return () -> new InOrderIterator(from, to);
     }
 
     // If we don't have a StringBuilder yet, make one;
@@ -0,0 +1,97 @@
+//** Instantiate the BinarySearchTreeMap to test*/
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
+import java.util.Iterator;
+
+public class BinarySearchTreeMapTest extends MapTestBase {
+    @Override
+    protected Map<String, Integer> createMap() {
+        return new BinarySearchTreeMap<>();
+    }
+
+    private OrderedMap<String, Integer> ordered() {
+        return (OrderedMap<String, Integer>) m;
+    }
+
+    private void insertSome() {
+        m.insert(KEY_FOUR, VAL_FOUR);
+        m.insert(KEY_TWO, VAL_TWO);
+        m.insert(KEY_SIX, VAL_SIX);
+        m.insert(KEY_EIGHT, VAL_EIGHT);
+    }
+
+    @Test
+    public void iteratorIsSorted() {
+        insertSome();
+        Iterator<String> iter = m.iterator();
+        assertEquals("B", iter.next());
+        assertEquals("D", iter.next());
+        assertEquals("F", iter.next());
+        assertEquals("H", iter.next());
+        assertEquals(false, iter.hasNext());
+    }
+
+    @Test
+    public void firstAndLast() {
+        assertEquals(null, ordered().first());
+        insertSome();
+        assertEquals("B", ordered().first());
+        assertEquals("H", ordered().last());
+    }
+
+    @Test
+    public void floorAndCeiling() {
+        insertSome();
+        assertEquals("D", ordered().floor("D"));
+        assertEquals("D", ordered().floor("E"));
+        assertEquals(null, ordered().floor("A"));
+        assertEquals("F", ordered().ceiling("E"));
+        assertEquals(null, ordered().ceiling("I"));
+    }
+
+    @Test
+    public void rangeIsHalfOpen() {
+        insertSome();
+        StringBuilder s = new StringBuilder();
+        for (String k : ordered().range("C", "H")) {
+            s.append(k);
+        }
+        assertEquals("DF", s.toString());
+    }
+
+    @Test
+    public void sortedInsertsStayFast() {
+        for (int i = 0; i < 100000; i++) {
+            m.insert(String.format("%06d", i), i);
+        }
+        for (int i = 0; i < 100000; i += 2) {
+            m.remove(String.format("%06d", i));
+        }
+        assertEquals(50000, m.size());
+        assertEquals("000001", ordered().first());
+        assertEquals("099999", ordered().last());
+        assertEquals(Integer.valueOf(777), m.get("000777"));
+    }
+
+    @Test
+    public void insertAllFromTreeAndUnsortedMap() {
+        BinarySearchTreeMap<String, Integer> tree = new BinarySearchTreeMap<>();
+        Map<String, Integer> hash = new HashMap<String, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            tree.insert(String.format("%04d", i), -i);
+            hash.insert(String.format("%04d", i), -i);
+        }
+        for (Map<String, Integer> other : Arrays.asList(tree, hash)) {
+            BinarySearchTreeMap<String, Integer> copy = new BinarySearchTreeMap<>();
+            copy.insertAll(other);
+            assertEquals(1000, copy.size());
+            int i = 0;
+            for (String k : copy) {
+                assertEquals(String.format("%04d", i), k);
+                assertEquals(Integer.valueOf(-i), copy.get(k));
+                i++;
+            }
+        }
+    }
+}
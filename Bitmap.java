@@ -0,0 +1,596 @@
+import java.util.Arrays;
+
+/**
+ * Compressed sets of document IDs, for sets that are dense.
+ *
+ * A posting list spends at least a byte per document, and AND and OR
+ * have to decode every document of both lists. When a set holds a good
+ * part of all documents a bitmap is both smaller and much faster to
+ * combine: 64 documents per long, one machine instruction each.
+ *
+ * Like Roaring bitmaps we split the ID space into chunks of 2^16 IDs
+ * by their high 16 bits, and store each non-empty chunk in the kind of
+ * container that suits it:
+ *
+ * - up to ARRAY_MAX IDs: a sorted char[] of their low 16 bits;
+ * - more than that: a long[1024] with one bit per ID of the chunk.
+ *
+ * 4096 is where the two take the same 8KB, so a container never takes
+ * more than 2 bytes per ID or 8KB, whichever is smaller, and a sparse
+ * chunk of an otherwise dense set doesn't cost a whole bitmap. and(),
+ * or() and andNot() walk the two sorted key lists and combine matching
+ * containers: two bitmaps word by word, a bitmap and an array by testing
+ * or setting one bit per array element, two arrays by merging. Results
+ * switch container kinds where they cross ARRAY_MAX.
+ *
+ * Bitmaps are immutable; they are made with a Builder (or of() a
+ * posting list) and read with a Cursor. They don't keep term
+ * frequencies, so they're only used where those don't matter.
+ */
+public final class Bitmap {
+
+    /** Largest number of IDs kept in an array container. */
+    static final int ARRAY_MAX = 4096;
+
+    // Longs in a bitmap container.
+    private static final int WORDS = 1 << 10;
+
+    /** The empty set. */
+    public static final Bitmap EMPTY = new Builder().build();
+
+    // High 16 bits of every chunk, ascending, and its container (char[]
+    // or long[]); there are no empty containers.
+    private final char[] keys;
+    private final Object[] containers;
+    private final int size;
+    private final int last;
+
+    private Bitmap(char[] keys, Object[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+        int n = 0;
+        for (Object c : containers) {
+            n += cardinality(c);
+        }
+        this.size = n;
+        if (keys.length == 0) {
+            this.last = -1;
+        } else {
+            Object c = containers[keys.length - 1];
+            int low;
+            if (c instanceof char[]) {
+                char[] a = (char[]) c;
+                low = a[a.length - 1];
+            } else {
+                long[] bits = (long[]) c;
+                int w = WORDS - 1;
+                while (bits[w] == 0) {
+                    w--;
+                }
+                low = w * 64 + 63 - Long.numberOfLeadingZeros(bits[w]);
+            }
+            this.last = keys[keys.length - 1] << 16 | low;
+        }
+    }
+
+    /**
+     * The documents of a posting list, as a bitmap.
+     *
+     * @param p The posting list.
+     * @return A bitmap holding the same IDs.
+     */
+    public static Bitmap of(PostingList p) {
+        Builder b = new Builder();
+        PostingList.Cursor c = p.cursor();
+        for (int d = c.next(); d != PostingList.Cursor.END; d = c.next()) {
+            b.add(d);
+        }
+        return b.build();
+    }
+
+    private static int cardinality(Object c) {
+        if (c instanceof char[]) {
+            return ((char[]) c).length;
+        }
+        int n = 0;
+        for (long w : (long[]) c) {
+            n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    private static boolean get(long[] bits, int low) {
+        return (bits[low >>> 6] & 1L << low) != 0;
+    }
+
+    // A bitmap container with the given number of bits set, as the
+    // right kind of container; null if it's empty.
+    private static Object shrink(long[] bits, int n) {
+        if (n == 0) {
+            return null;
+        }
+        if (n > ARRAY_MAX) {
+            return bits;
+        }
+        char[] a = new char[n];
+        int k = 0;
+        for (int w = 0; w < WORDS; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                a[k++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+            }
+        }
+        return a;
+    }
+
+    // Sorted array of n values as the right kind of container.
+    private static Object grow(char[] a, int n) {
+        if (n == 0) {
+            return null;
+        }
+        if (n <= ARRAY_MAX) {
+            return n == a.length ? a : Arrays.copyOf(a, n);
+        }
+        long[] bits = new long[WORDS];
+        for (int i = 0; i < n; i++) {
+            bits[a[i] >>> 6] |= 1L << a[i];
+        }
+        return bits;
+    }
+
+    // Elements of array a for which the bit in bits is (or isn't) set.
+    private static Object filter(char[] a, long[] bits, boolean keep) {
+        char[] r = new char[a.length];
+        int n = 0;
+        for (char v : a) {
+            if (get(bits, v) == keep) {
+                r[n++] = v;
+            }
+        }
+        return grow(r, n);
+    }
+
+    private static Object and(Object x, Object y) {
+        if (x instanceof long[] && y instanceof long[]) {
+            long[] a = (long[]) x;
+            long[] b = (long[]) y;
+            long[] r = new long[WORDS];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                r[w] = a[w] & b[w];
+                n += Long.bitCount(r[w]);
+            }
+            return shrink(r, n);
+        }
+        if (x instanceof long[]) {
+            return filter((char[]) y, (long[]) x, true);
+        }
+        if (y instanceof long[]) {
+            return filter((char[]) x, (long[]) y, true);
+        }
+        char[] a = (char[]) x;
+        char[] b = (char[]) y;
+        char[] r = new char[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                r[n++] = a[i++];
+                j++;
+            }
+        }
+        return grow(r, n);
+    }
+
+    private static Object or(Object x, Object y) {
+        if (x instanceof char[] && y instanceof long[]) {
+            Object t = x;
+            x = y;
+            y = t;
+        }
+        if (x instanceof long[]) {
+            long[] r = ((long[]) x).clone();
+            if (y instanceof long[]) {
+                long[] b = (long[]) y;
+                for (int w = 0; w < WORDS; w++) {
+                    r[w] |= b[w];
+                }
+            } else {
+                for (char v : (char[]) y) {
+                    r[v >>> 6] |= 1L << v;
+                }
+            }
+            return r;
+        }
+        char[] a = (char[]) x;
+        char[] b = (char[]) y;
+        char[] r = new char[a.length + b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                r[n++] = a[i++];
+            } else if (i == a.length || a[i] > b[j]) {
+                r[n++] = b[j++];
+            } else {
+                r[n++] = a[i++];
+                j++;
+            }
+        }
+        return grow(r, n);
+    }
+
+    private static Object andNot(Object x, Object y) {
+        if (x instanceof long[]) {
+            long[] r = ((long[]) x).clone();
+            if (y instanceof long[]) {
+                long[] b = (long[]) y;
+                for (int w = 0; w < WORDS; w++) {
+                    r[w] &= ~b[w];
+                }
+            } else {
+                for (char v : (char[]) y) {
+                    r[v >>> 6] &= ~(1L << v);
+                }
+            }
+            return shrink(r, cardinality(r));
+        }
+        char[] a = (char[]) x;
+        if (y instanceof long[]) {
+            return filter(a, (long[]) y, false);
+        }
+        char[] b = (char[]) y;
+        char[] r = new char[a.length];
+        int n = 0;
+        int j = 0;
+        for (char v : a) {
+            while (j < b.length && b[j] < v) {
+                j++;
+            }
+            if (j == b.length || b[j] != v) {
+                r[n++] = v;
+            }
+        }
+        return grow(r, n);
+    }
+
+    // What to do with chunks only one side has.
+    private enum Op { AND, OR, AND_NOT }
+
+    private static Bitmap combine(Bitmap a, Bitmap b, Op op) {
+        char[] keys = new char[a.keys.length + b.keys.length];
+        Object[] containers = new Object[keys.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.keys.length || j < b.keys.length) {
+            int ka = i < a.keys.length ? a.keys[i] : Integer.MAX_VALUE;
+            int kb = j < b.keys.length ? b.keys[j] : Integer.MAX_VALUE;
+            Object c;
+            int key;
+            if (ka < kb) {
+                key = ka;
+                c = op == Op.AND ? null : a.containers[i];
+                i++;
+            } else if (ka > kb) {
+                key = kb;
+                c = op == Op.OR ? b.containers[j] : null;
+                j++;
+            } else {
+                key = ka;
+                Object x = a.containers[i++];
+                Object y = b.containers[j++];
+                c = op == Op.AND ? and(x, y) : op == Op.OR ? or(x, y) : andNot(x, y);
+            }
+            if (c != null) {
+                keys[n] = (char) key;
+                containers[n++] = c;
+            }
+        }
+        return new Bitmap(Arrays.copyOf(keys, n), Arrays.copyOf(containers, n));
+    }
+
+    /**
+     * Intersect two bitmaps.
+     *
+     * @param a One bitmap.
+     * @param b Another bitmap.
+     * @return The IDs in both a and b.
+     */
+    public static Bitmap and(Bitmap a, Bitmap b) {
+        return combine(a, b, Op.AND);
+    }
+
+    /**
+     * Unite two bitmaps.
+     *
+     * @param a One bitmap.
+     * @param b Another bitmap.
+     * @return The IDs in a or b (or both).
+     */
+    public static Bitmap or(Bitmap a, Bitmap b) {
+        if (a.isEmpty()) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        return combine(a, b, Op.OR);
+    }
+
+    /**
+     * Subtract one bitmap from another.
+     *
+     * @param a The bitmap to subtract from.
+     * @param b The bitmap to subtract.
+     * @return The IDs in a but not in b.
+     */
+    public static Bitmap andNot(Bitmap a, Bitmap b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return a;
+        }
+        return combine(a, b, Op.AND_NOT);
+    }
+
+    /**
+     * Number of IDs.
+     *
+     * @return Number of IDs in this set.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Check if the set is empty.
+     *
+     * @return True if there are no IDs.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Check if an ID is in the set.
+     *
+     * @param doc The ID.
+     * @return True if doc is in the set.
+     */
+    public boolean contains(int doc) {
+        if (doc < 0) {
+            return false;
+        }
+        int i = Arrays.binarySearch(this.keys, (char) (doc >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Object c = this.containers[i];
+        if (c instanceof long[]) {
+            return get((long[]) c, doc & 0xffff);
+        }
+        return Arrays.binarySearch((char[]) c, (char) doc) >= 0;
+    }
+
+    /**
+     * Bytes used by the containers, roughly.
+     *
+     * @return Size of the keys and containers in bytes.
+     */
+    public int sizeInBytes() {
+        int n = 2 * this.keys.length;
+        for (Object c : this.containers) {
+            n += c instanceof long[] ? 8 * WORDS : 2 * ((char[]) c).length;
+        }
+        return n;
+    }
+
+    /**
+     * Start reading the IDs.
+     *
+     * @return A cursor before the first ID.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Copy the IDs into an array.
+     *
+     * @return All IDs, ascending.
+     */
+    public int[] toArray() {
+        int[] a = new int[this.size];
+        Cursor c = this.cursor();
+        int i = 0;
+        for (int d = c.next(); d != Cursor.END; d = c.next()) {
+            a[i++] = d;
+        }
+        return a;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.toArray());
+    }
+
+    /**
+     * Reads a bitmap front to back. Documents all score 0.
+     */
+    public final class Cursor implements DocCursor {
+        private int container;
+        // Where in an array container to continue searching.
+        private int index;
+        private int doc = -1;
+
+        private Cursor() {}
+
+        @Override
+        public int doc() {
+            return this.doc;
+        }
+
+        @Override
+        public int next() {
+            if (this.doc == END) {
+                return END;
+            }
+            return this.advance(this.doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.doc >= target) {
+                return this.doc;
+            }
+            Bitmap b = Bitmap.this;
+            int key = target >>> 16;
+            if (this.container < b.keys.length && b.keys[this.container] < key) {
+                int i = Arrays.binarySearch(b.keys, this.container, b.keys.length, (char) key);
+                this.container = i >= 0 ? i : -i - 1;
+                this.index = 0;
+            }
+            int low = target & 0xffff;
+            while (this.container < b.keys.length) {
+                if (b.keys[this.container] > key) {
+                    low = 0;
+                }
+                int found = this.find(b.containers[this.container], low);
+                if (found >= 0) {
+                    this.doc = b.keys[this.container] << 16 | found;
+                    return this.doc;
+                }
+                this.container++;
+                this.index = 0;
+                low = 0;
+            }
+            this.doc = END;
+            return END;
+        }
+
+        // Smallest value >= low in the container, -1 if none.
+        private int find(Object c, int low) {
+            if (c instanceof char[]) {
+                char[] a = (char[]) c;
+                int lo = this.index;
+                int hi = a.length;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (a[mid] < low) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                this.index = lo;
+                return lo < a.length ? a[lo] : -1;
+            }
+            long[] bits = (long[]) c;
+            int w = low >>> 6;
+            long word = bits[w] & -1L << low;
+            while (word == 0) {
+                if (++w == WORDS) {
+                    return -1;
+                }
+                word = bits[w];
+            }
+            return w * 64 + Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        public float score() {
+            return 0;
+        }
+
+        @Override
+        public float blockMax(int target) {
+            return 0;
+        }
+
+        // All of the rest is one block, nothing in it scores.
+        @Override
+        public int blockEnd(int target) {
+            return target > Bitmap.this.last ? END : Bitmap.this.last;
+        }
+    }
+
+    /**
+     * Collects IDs for a new bitmap; they have to be added in ascending
+     * order.
+     */
+    public static final class Builder {
+        private char[] keys = new char[4];
+        private Object[] containers = new Object[4];
+        private int n;
+        // The chunk being filled: its key, and its values in an array
+        // until there are too many, then in bits.
+        private int key = -1;
+        private char[] array = new char[16];
+        private long[] bits;
+        private int count;
+        private int last = -1;
+
+        /**
+         * Add an ID.
+         *
+         * @param doc The ID, larger than all IDs added so far.
+         * @throws IllegalArgumentException If doc is out of order.
+         */
+        public void add(int doc) {
+            if (doc <= this.last) {
+                throw new IllegalArgumentException("out of order doc " + doc);
+            }
+            this.last = doc;
+            int k = doc >>> 16;
+            if (k != this.key) {
+                this.flush();
+                this.key = k;
+            }
+            char low = (char) doc;
+            if (this.bits == null && this.count == ARRAY_MAX) {
+                this.bits = new long[WORDS];
+                for (int i = 0; i < ARRAY_MAX; i++) {
+                    this.bits[this.array[i] >>> 6] |= 1L << this.array[i];
+                }
+            }
+            if (this.bits != null) {
+                this.bits[low >>> 6] |= 1L << low;
+            } else {
+                if (this.count == this.array.length) {
+                    this.array = Arrays.copyOf(this.array, this.array.length * 2);
+                }
+                this.array[this.count] = low;
+            }
+            this.count++;
+        }
+
+        private void flush() {
+            if (this.count == 0) {
+                return;
+            }
+            if (this.n == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.n * 2);
+                this.containers = Arrays.copyOf(this.containers, this.n * 2);
+            }
+            this.keys[this.n] = (char) this.key;
+            this.containers[this.n++] =
+                this.bits != null ? this.bits : Arrays.copyOf(this.array, this.count);
+            this.bits = null;
+            this.count = 0;
+        }
+
+        /**
+         * Make the bitmap. The builder can't be used afterwards.
+         *
+         * @return The bitmap of all IDs added.
+         */
+        public Bitmap build() {
+            this.flush();
+            return new Bitmap(Arrays.copyOf(this.keys, this.n), Arrays.copyOf(this.containers, this.n));
+        }
+    }
+}
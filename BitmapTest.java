@@ -0,0 +1,149 @@
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class BitmapTest {
+
+    private static Bitmap bitmap(TreeSet<Integer> docs) {
+        Bitmap.Builder b = new Bitmap.Builder();
+        for (int d : docs) {
+            b.add(d);
+        }
+        return b.build();
+    }
+
+    private static int[] array(TreeSet<Integer> docs) {
+        return docs.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Random IDs below n, each there with probability p; some chunks get
+    // arrays, some bitmaps.
+    private static TreeSet<Integer> random(Random r, int n, double p) {
+        TreeSet<Integer> docs = new TreeSet<Integer>();
+        for (int d = 0; d < n; d++) {
+            if (r.nextDouble() < p) {
+                docs.add(d);
+            }
+        }
+        return docs;
+    }
+
+    @Test
+    public void emptyBitmap() {
+        assertEquals(0, Bitmap.EMPTY.size());
+        assertTrue(Bitmap.EMPTY.isEmpty());
+        assertEquals(Bitmap.Cursor.END, Bitmap.EMPTY.cursor().next());
+        assertEquals(false, Bitmap.EMPTY.contains(0));
+    }
+
+    @Test
+    public void roundTrip() {
+        Random r = new Random(1);
+        for (double p : new double[] {0.001, 0.05, 0.07, 0.5, 1}) {
+            TreeSet<Integer> docs = random(r, 300000, p);
+            Bitmap b = bitmap(docs);
+            assertEquals(docs.size(), b.size());
+            assertArrayEquals(array(docs), b.toArray());
+            for (int d = 0; d < 300000; d += 7) {
+                assertEquals(docs.contains(d), b.contains(d));
+            }
+        }
+        int[] far = {0, 65535, 65536, 1 << 28, Integer.MAX_VALUE - 1};
+        Bitmap.Builder b = new Bitmap.Builder();
+        for (int d : far) {
+            b.add(d);
+        }
+        assertArrayEquals(far, b.build().toArray());
+    }
+
+    @Test
+    public void setOperationsMatchSets() {
+        Random r = new Random(2);
+        double[] densities = {0.01, 0.06, 0.3};
+        for (double p : densities) {
+            for (double q : densities) {
+                TreeSet<Integer> a = random(r, 200000, p);
+                TreeSet<Integer> b = random(r, 150000, q);
+                TreeSet<Integer> and = new TreeSet<Integer>(a);
+                and.retainAll(b);
+                TreeSet<Integer> or = new TreeSet<Integer>(a);
+                or.addAll(b);
+                TreeSet<Integer> andNot = new TreeSet<Integer>(a);
+                andNot.removeAll(b);
+                assertArrayEquals(array(and), Bitmap.and(bitmap(a), bitmap(b)).toArray());
+                assertArrayEquals(array(or), Bitmap.or(bitmap(a), bitmap(b)).toArray());
+                assertArrayEquals(array(andNot), Bitmap.andNot(bitmap(a), bitmap(b)).toArray());
+                assertEquals(and.size(), Bitmap.and(bitmap(a), bitmap(b)).size());
+            }
+        }
+    }
+
+    @Test
+    public void resultsSwitchContainers() {
+        TreeSet<Integer> all = new TreeSet<Integer>();
+        TreeSet<Integer> most = new TreeSet<Integer>();
+        for (int d = 0; d < 65536; d++) {
+            all.add(d);
+            if (d >= 10) {
+                most.add(d);
+            }
+        }
+        Bitmap full = bitmap(all);
+        assertEquals(2 + 8192, full.sizeInBytes());
+        // Ten IDs left: one small array, not a whole bitmap.
+        Bitmap rest = Bitmap.andNot(full, bitmap(most));
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, rest.toArray());
+        assertEquals(2 + 20, rest.sizeInBytes());
+        assertTrue(Bitmap.andNot(full, full).isEmpty());
+    }
+
+    @Test
+    public void advanceSkipsAhead() {
+        Random r = new Random(3);
+        TreeSet<Integer> docs = random(r, 500000, 0.02);
+        docs.addAll(random(r, 100000, 0.5));
+        Bitmap.Cursor c = bitmap(docs).cursor();
+        int target = 0;
+        while (true) {
+            Integer expected = docs.ceiling(target);
+            int d = c.advance(target);
+            assertEquals(expected == null ? Bitmap.Cursor.END : (int) expected, d);
+            if (expected == null) {
+                break;
+            }
+            assertEquals(d, c.advance(target));
+            target = d + 1 + r.nextInt(5000);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfOrder() {
+        Bitmap.Builder b = new Bitmap.Builder();
+        b.add(5);
+        b.add(5);
+    }
+
+    @Test
+    public void denseListsKeepTheirBitmap() {
+        PostingList.Builder b = new PostingList.Builder();
+        for (int d = 0; d < 20000; d += 3) {
+            b.add(d);
+        }
+        PostingList dense = b.build();
+        assertTrue(dense.isDense());
+        assertSame(dense.bitmap(), dense.bitmap());
+        assertArrayEquals(dense.toArray(), dense.bitmap().toArray());
+
+        b = new PostingList.Builder();
+        for (int d = 0; d < 2000000; d += 100) {
+            b.add(d);
+        }
+        PostingList sparse = b.build();
+        assertEquals(false, sparse.isDense());
+        assertArrayEquals(sparse.toArray(), sparse.bitmap().toArray());
+    }
+}
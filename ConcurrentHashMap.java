@@ -0,0 +1,399 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maps implemented as hash tables that many threads can use at once.
+ *
+ * The table is split into segments, each a small chained hash table of
+ * its own guarded by its own lock, and a key's hash picks its segment.
+ * Writers (insert, put, remove) lock only that segment, so writers on
+ * different segments never wait for each other, and each segment grows
+ * on its own when it gets full instead of the whole map stopping for one
+ * big resize.
+ *
+ * Growing is not cooperative the way java.util.concurrent's is, where
+ * every writer that runs into a resize helps move part of the table: the
+ * writer that fills a segment moves all of that segment by itself,
+ * holding its lock. That stalls writers to the same segment for time
+ * proportional to its size, about 1/segments of the map, while readers
+ * and writers to other segments go on as usual.
+ *
+ * Readers (get, has, size, iteration) don't lock at all. That works
+ * because entries never change except for their value: key, hash and
+ * next pointer are final, so removing an entry copies the entries in
+ * front of it instead of unlinking it, and growing a segment builds a
+ * new table next to the old one. A reader therefore always walks some
+ * consistent version of a chain. Tables are AtomicReferenceArrays and
+ * values are volatile, so whatever a writer published is visible.
+ *
+ * Iterators are weakly consistent: they never throw because of
+ * concurrent changes and see every key that was there when they were
+ * created and not removed since, and maybe some that were added later.
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class ConcurrentHashMap<K, V> implements Map<K, V> {
+
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Immutable except for the value.
+    private static final class Entry<K, V> {
+        final K key;
+        final int hash;
+        final Entry<K, V> next;
+        volatile V value;
+
+        Entry(K key, int hash, Entry<K, V> next, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.next = next;
+            this.value = value;
+        }
+    }
+
+    // One independently locked hash table.
+    private static final class Segment<K, V> extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        volatile AtomicReferenceArray<Entry<K, V>> table;
+        volatile int count;
+
+        Segment() {
+            this.table = new AtomicReferenceArray<Entry<K, V>>(INITIAL_CAPACITY);
+        }
+
+        // Lock-free lookup.
+        Entry<K, V> find(Object k, int h) {
+            AtomicReferenceArray<Entry<K, V>> t = this.table;
+            for (Entry<K, V> e = t.get(h & (t.length() - 1)); e != null; e = e.next) {
+                if (e.hash == h && e.key.equals(k)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        // Caller holds the lock.
+        void insert(K k, int h, V v) {
+            if (this.find(k, h) != null) {
+                throw new IllegalArgumentException("duplicate key " + k);
+            }
+            this.add(k, h, v);
+        }
+
+        // Caller holds the lock and made sure k isn't there.
+        void add(K k, int h, V v) {
+            AtomicReferenceArray<Entry<K, V>> t = this.table;
+            if (this.count + 1 > t.length() * 3 / 4) {
+                t = this.grow();
+            }
+            int i = h & (t.length() - 1);
+            t.set(i, new Entry<K, V>(k, h, t.get(i), v));
+            this.count++;
+        }
+
+        // Caller holds the lock.
+        V remove(Object k, int h) {
+            AtomicReferenceArray<Entry<K, V>> t = this.table;
+            int i = h & (t.length() - 1);
+            Entry<K, V> first = t.get(i);
+            Entry<K, V> e = first;
+            while (e != null && (e.hash != h || !e.key.equals(k))) {
+                e = e.next;
+            }
+            if (e == null) {
+                throw new IllegalArgumentException("cannot find key " + k);
+            }
+            // Entries after e stay as they are, the ones in front of it
+            // are copied onto them.
+            Entry<K, V> rest = e.next;
+            for (Entry<K, V> p = first; p != e; p = p.next) {
+                rest = new Entry<K, V>(p.key, p.hash, rest, p.value);
+            }
+            t.set(i, rest);
+            this.count--;
+            return e.value;
+        }
+
+        // Double the table, caller holds the lock. The old table and its
+        // entries are left alone for readers that are still using it.
+        AtomicReferenceArray<Entry<K, V>> grow() {
+            AtomicReferenceArray<Entry<K, V>> old = this.table;
+            int n = old.length() * 2;
+            AtomicReferenceArray<Entry<K, V>> t = new AtomicReferenceArray<Entry<K, V>>(n);
+            for (int j = 0; j < old.length(); j++) {
+                for (Entry<K, V> e = old.get(j); e != null; e = e.next) {
+                    int i = e.hash & (n - 1);
+                    t.set(i, new Entry<K, V>(e.key, e.hash, t.get(i), e.value));
+                }
+            }
+            this.table = t;
+            return t;
+        }
+    }
+
+    private final Segment<K, V>[] segments;
+    private final int shift;
+
+    /**
+     * Create an empty map.
+     */
+    public ConcurrentHashMap() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Create an empty map for the given number of concurrent writers.
+     *
+     * @param concurrency Expected number of threads writing at the same
+     *     time; rounded up to a power of two segments.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentHashMap(int concurrency) {
+        int n = 1;
+        int bits = 0;
+        while (n < concurrency) {
+            n *= 2;
+            bits++;
+        }
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[n];
+        for (int i = 0; i < n; i++) {
+            this.segments[i] = new Segment<K, V>();
+        }
+        // Segments use the top bits of the hash, tables the bottom ones.
+        this.shift = 32 - bits;
+    }
+
+    // Spread the hash code (MurmurHash3 finalizer), see OpenHashMap.
+    private static int hash(Object k) {
+        if (k == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        int h = k.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private Segment<K, V> segment(int h) {
+        return this.segments.length == 1 ? this.segments[0] : this.segments[h >>> this.shift];
+    }
+
+    @Override
+    public void insert(K k, V v) {
+        int h = hash(k);
+        Segment<K, V> s = this.segment(h);
+        s.lock();
+        try {
+            s.insert(k, h, v);
+        } finally {
+            s.unlock();
+        }
+    }
+
+    @Override
+    public V remove(K k) {
+        int h = hash(k);
+        Segment<K, V> s = this.segment(h);
+        s.lock();
+        try {
+            return s.remove(k, h);
+        } finally {
+            s.unlock();
+        }
+    }
+
+    @Override
+    public void put(K k, V v) {
+        int h = hash(k);
+        Segment<K, V> s = this.segment(h);
+        s.lock();
+        try {
+            Entry<K, V> e = s.find(k, h);
+            if (e == null) {
+                throw new IllegalArgumentException("cannot find key " + k);
+            }
+            e.value = v;
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * Get the value associated with a key, inserting one first if the
+     * key is not mapped yet. Atomic: f is called at most once per key
+     * even with many threads, while holding the lock of the key's
+     * segment, so it should be quick.
+     *
+     * @param k The key.
+     * @param f Makes the value for k if there isn't one; must not use
+     *     the map.
+     * @return The value now associated with k.
+     * @throws IllegalArgumentException If k is null.
+     */
+    @Override
+    public V computeIfAbsent(K k, Function<? super K, ? extends V> f) {
+        int h = hash(k);
+        Segment<K, V> s = this.segment(h);
+        Entry<K, V> e = s.find(k, h);
+        if (e != null) {
+            return e.value;
+        }
+        s.lock();
+        try {
+            e = s.find(k, h);
+            if (e != null) {
+                return e.value;
+            }
+            V v = f.apply(k);
+            s.add(k, h, v);
+            return v;
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * Insert a new key/value pair, or combine the value with the one
+     * already associated with the key. Atomic, f is called while
+     * holding the lock of the key's segment.
+     *
+     * @param k The key.
+     * @param v The value to insert or combine.
+     * @param f Combines the old value and v into the new value; must not
+     *     use the map.
+     * @return The value now associated with k.
+     * @throws IllegalArgumentException If k is null.
+     */
+    @Override
+    public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+        int h = hash(k);
+        Segment<K, V> s = this.segment(h);
+        s.lock();
+        try {
+            Entry<K, V> e = s.find(k, h);
+            if (e == null) {
+                s.add(k, h, v);
+                return v;
+            }
+            V merged = f.apply(e.value, v);
+            e.value = merged;
+            return merged;
+        } finally {
+            s.unlock();
+        }
+    }
+
+    @Override
+    public V get(K k) {
+        int h = hash(k);
+        Entry<K, V> e = this.segment(h).find(k, h);
+        if (e == null) {
+            throw new IllegalArgumentException("cannot find key " + k);
+        }
+        return e.value;
+    }
+
+    @Override
+    public boolean has(K k) {
+        if (k == null) {
+            return false;
+        }
+        int h = hash(k);
+        return this.segment(h).find(k, h) != null;
+    }
+
+    /**
+     * Number of mappings. With concurrent writers this is only a
+     * snapshot: we add up the segment counts one after the other.
+     *
+     * @return Number of key/value pairs in the map.
+     */
+    @Override
+    public int size() {
+        int n = 0;
+        for (Segment<K, V> s : this.segments) {
+            n += s.count;
+        }
+        return n;
+    }
+
+    // Walks the segments one table at a time. Each table is read once
+    // when we get to its segment, so we see that segment as it was then.
+    private class WeakIterator implements Iterator<K> {
+        private int segment;
+        private AtomicReferenceArray<Entry<K, V>> table;
+        private int bucket;
+        private Entry<K, V> next;
+
+        WeakIterator() {
+            this.advance();
+        }
+
+        private void advance() {
+            if (this.next != null) {
+                this.next = this.next.next;
+            }
+            while (this.next == null) {
+                if (this.table != null && this.bucket < this.table.length()) {
+                    this.next = this.table.get(this.bucket++);
+                } else if (this.segment < ConcurrentHashMap.this.segments.length) {
+                    this.table = ConcurrentHashMap.this.segments[this.segment++].table;
+                    this.bucket = 0;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public K next() {
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            K k = this.next.key;
+            this.advance();
+            return k;
+        }
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+        return new WeakIterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("{");
+        for (K k : this) {
+            int h = hash(k);
+            Entry<K, V> e = this.segment(h).find(k, h);
+            if (e != null) {
+                s.append(k);
+                s.append(": ");
+                s.append(e.value);
+                s.append(", ");
+            }
+        }
+        if (s.length() > 1) {
+            s.setLength(s.length() - 2);
+        }
+        s.append("}");
+        return s.toString();
+    }
+}
@@ -0,0 +1,103 @@
+//** Instantiate the ConcurrentHashMap to test*/
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentHashMapTest extends MapTestBase {
+    @Override
+    protected Map<String, Integer> createMap() {
+        return new ConcurrentHashMap<>();
+    }
+
+    // Iterators are weakly consistent instead of fail-fast: changing the
+    // map while iterating is fine.
+    @Override
+    @Test
+    public void iteratorFailsFast() {
+        m.insert(KEY_ONE, VAL_ONE);
+        m.insert(KEY_TWO, VAL_TWO);
+        Iterator<String> iter = m.iterator();
+        iter.next();
+        m.insert(KEY_THREE, VAL_THREE);
+        m.remove(KEY_ONE);
+        while (iter.hasNext()) {
+            iter.next();
+        }
+    }
+
+    @Test
+    public void growKeepsEverything() {
+        for (int i = 0; i < 1000; i++) {
+            m.insert("key" + i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), m.remove("key" + i));
+        }
+        assertEquals(500, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, m.has("key" + i));
+        }
+    }
+
+    @Test
+    public void singleSegment() {
+        m = new ConcurrentHashMap<>(1);
+        for (int i = 0; i < 100; i++) {
+            m.insert("key" + i, i);
+        }
+        assertEquals(100, m.size());
+        assertEquals(Integer.valueOf(42), m.get("key42"));
+    }
+
+    @Test
+    public void concurrentWritersAndReaders() throws Throwable {
+        final int threads = 4;
+        final int perThread = 10000;
+        // What a worker throws doesn't fail the test by itself, so the
+        // first failure is kept and thrown once all workers are done.
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        String k = id + ":" + i;
+                        m.insert(k, i);
+                        if (!m.has(k)) {
+                            throw new AssertionError("lost " + k);
+                        }
+                        if (i % 2 == 0) {
+                            m.remove(k);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        assertEquals(threads * perThread / 2, m.size());
+        int count = 0;
+        for (String k : m) {
+            count++;
+        }
+        assertEquals(threads * perThread / 2, count);
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                assertEquals(i % 2 == 1, m.has(t + ":" + i));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Iterates over a sorted set of document IDs.
+ *
+ * Cursors start before the first document and only ever move forward.
+ * PostingList.Cursor reads a single posting list; Query combines cursors
+ * into cursors for AND and OR that compute their documents on demand, so
+ * a whole query can be evaluated without building intermediate lists.
+ *
+ * Cursors also score the document they are on, and can give an upper
+ * bound for the scores of the documents ahead of them block by block
+ * without moving; TopK uses that to skip blocks that can't contain any
+ * of the best results.
+ */
+public interface DocCursor {
+    /** Returned by next() and advance() once all documents have been read. */
+    int END = Integer.MAX_VALUE;
+
+    /**
+     * Current document.
+     *
+     * @return The document the cursor is on, -1 before the first call
+     *     to next() or advance(), and END after the last document.
+     */
+    int doc();
+
+    /**
+     * Advance to the next document.
+     *
+     * @return The next document ID, or END if there are no more.
+     */
+    int next();
+
+    /**
+     * Advance to the first document at or after target. Does not move
+     * if the cursor already is on such a document.
+     *
+     * @param target The document ID we're looking for.
+     * @return The first document ID >= target, or END if none.
+     */
+    int advance(int target);
+
+    /**
+     * Score of the current document; higher is better.
+     *
+     * @return How well doc() matches, 0 if the cursor is not on a
+     *     document.
+     */
+    float score();
+
+    /**
+     * Upper bound for the score of the documents from target to
+     * blockEnd(target). Doesn't move the cursor.
+     *
+     * @param target A document ID; documents the cursor has already
+     *     passed don't count.
+     * @return No document in that range scores higher than this.
+     */
+    float blockMax(int target);
+
+    /**
+     * Last document covered by blockMax(target). Doesn't move the cursor.
+     *
+     * @param target A document ID.
+     * @return A document ID >= target, END if there are no documents
+     *     at or after target.
+     */
+    int blockEnd(int target);
+}
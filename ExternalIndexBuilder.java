@@ -0,0 +1,153 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds an index file from a crawl too big to index on the heap.
+ *
+ * MemoryIndex.Builder keeps every posting until the end. Here we feed it
+ * the crawl a piece at a time, cut at lines that start with a URL like
+ * the shards of ParallelIndexBuilder, and whenever it holds more than
+ * half the memory budget we write what it has as a run: an ordinary
+ * index file, terms sorted, over the sites read since the last run. A
+ * piece is an eighth of the budget, so the builder never gets far past
+ * that half.
+ *
+ * Runs hold consecutive sites, so a word's posting list is the
+ * concatenation of its lists in all runs, each shifted by the number of
+ * sites in the runs before it. The runs' term tables are sorted, so a
+ * heap over the current term of every run yields the words in order
+ * with each word's runs in run order, and IndexFile.Writer streams the
+ * final file out one word at a time, the URLs and words going to its
+ * temporary table files. While merging we only hold the current term of
+ * each run and one posting list: memory depends on the number of runs
+ * and the length of the longest posting list (which the file format
+ * caps at IndexFile.WINDOW bytes), not on the size of the crawl.
+ *
+ * Runs are written next to the output file, since that's where there
+ * is room for an index, and deleted when we're done.
+ */
+public final class ExternalIndexBuilder {
+
+    private ExternalIndexBuilder() {}
+
+    /**
+     * Index a crawl file into an index file.
+     *
+     * @param crawl The crawl file.
+     * @param out The index file to write, replaced if it exists.
+     * @param budget Bytes to use for postings while reading, roughly.
+     * @return The index, mapped from out.
+     * @throws IOException If reading or writing fails.
+     */
+    public static MappedIndex build(File crawl, File out, long budget) throws IOException {
+        List<File> runs = new ArrayList<File>();
+        try {
+            runs(crawl, out.getAbsoluteFile().getParentFile(), budget, runs);
+            merge(runs, out);
+        } finally {
+            for (File f : runs) {
+                f.delete();
+            }
+        }
+        return IndexFile.load(out);
+    }
+
+    // Index the crawl into runs in dir, adding each to runs as soon as
+    // it exists so the caller can clean up after a failure.
+    static void runs(File crawl, File dir, long budget, List<File> runs) throws IOException {
+        if (budget < 1) {
+            throw new IllegalArgumentException("bad budget " + budget);
+        }
+        long piece = Math.max(1, budget / 8);
+        try (RandomAccessFile raf = new RandomAccessFile(crawl, "r")) {
+            long length = raf.length();
+            MemoryIndex.Builder b = new MemoryIndex.Builder();
+            long pos = 0;
+            while (pos < length) {
+                long end = length - pos <= piece
+                    ? length : ParallelIndexBuilder.nextSite(raf, pos + piece);
+                b.read(raf.getChannel(), pos, end);
+                pos = end;
+                if (pos < length && b.sizeInBytes() > budget / 2) {
+                    write(b, dir, runs);
+                    b = new MemoryIndex.Builder();
+                }
+            }
+            write(b, dir, runs);
+        }
+    }
+
+    private static void write(MemoryIndex.Builder b, File dir, List<File> runs) throws IOException {
+        File f = File.createTempFile("jhugle-run", ".idx", dir);
+        runs.add(f);
+        IndexFile.write(b.build(), f);
+    }
+
+    // Where a merge is in one run.
+    private static final class Run {
+        private final MappedIndex index;
+        private final int order;
+        private final int start;
+        private int term;
+        private byte[] bytes;
+
+        Run(MappedIndex index, int order, int start) {
+            this.index = index;
+            this.order = order;
+            this.start = start;
+            this.term = -1;
+        }
+
+        // Move to the next term; false if there is none.
+        boolean next() {
+            if (++this.term == this.index.numTerms()) {
+                return false;
+            }
+            this.bytes = this.index.bytes(this.term);
+            return true;
+        }
+    }
+
+    // Merge the runs, in order, into one index file.
+    static void merge(List<File> runs, File out) throws IOException {
+        PriorityQueue<Run> heap = new PriorityQueue<Run>(Math.max(1, runs.size()),
+            Comparator.comparing((Run r) -> r.bytes, IndexFile.ORDER)
+                .thenComparingInt(r -> r.order));
+        try (IndexFile.Writer w = new IndexFile.Writer(out)) {
+            int sites = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                MappedIndex index = IndexFile.load(runs.get(i));
+                Run run = new Run(index, i, sites);
+                for (int d = 0; d < index.numSites(); d++) {
+                    w.site(index.site(d));
+                }
+                sites += index.numSites();
+                if (run.next()) {
+                    heap.add(run);
+                }
+            }
+            while (!heap.isEmpty()) {
+                byte[] term = heap.peek().bytes;
+                PostingList.Builder b = new PostingList.Builder();
+                while (!heap.isEmpty() && Arrays.equals(heap.peek().bytes, term)) {
+                    Run run = heap.poll();
+                    PostingList.Cursor c = run.index.postings(run.term).cursor();
+                    for (int d = c.next(); d != PostingList.Cursor.END; d = c.next()) {
+                        b.add(d + run.start, c.tf());
+                    }
+                    if (run.next()) {
+                        heap.add(run);
+                    }
+                }
+                w.add(term, b.build());
+            }
+            w.finish();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ExternalIndexBuilderTest {
+
+    private static File crawl(String text) throws IOException {
+        File f = File.createTempFile("crawl", ".txt");
+        Files.write(f.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    // Same sites, words, postings and tfs.
+    private static void assertSameIndex(MemoryIndex expected, Index actual) {
+        assertEquals(expected.numSites(), actual.numSites());
+        assertEquals(expected.numTerms(), actual.numTerms());
+        for (int d = 0; d < expected.numSites(); d++) {
+            assertEquals(expected.site(d), actual.site(d));
+        }
+        for (int t = 0; t < expected.numTerms(); t++) {
+            String word = expected.terms().term(t);
+            PostingList e = expected.postings(t);
+            PostingList a = actual.postings(word);
+            assertArrayEquals(e.toArray(), a.toArray());
+            PostingList.Cursor ec = e.cursor();
+            PostingList.Cursor ac = a.cursor();
+            for (int d = ec.next(); d != PostingList.Cursor.END; d = ec.next()) {
+                assertEquals(d, ac.next());
+                assertEquals(ec.tf(), ac.tf());
+            }
+        }
+    }
+
+    @Test
+    public void runsMergeIntoTheSameIndex() throws IOException {
+        Random r = new Random(7);
+        StringBuilder text = new StringBuilder("orphan words first\n");
+        for (int s = 0; s < 3000; s++) {
+            text.append("http://site").append(r.nextInt(1000)).append(".com/");
+            for (int w = r.nextInt(12); w >= 0; w--) {
+                text.append(' ').append("w").append(r.nextInt(r.nextBoolean() ? 20 : 5000));
+                if (r.nextInt(8) == 0) {
+                    text.append('\n');
+                }
+            }
+            text.append('\n');
+        }
+        File crawl = crawl(text.toString());
+        File dir = crawl.getAbsoluteFile().getParentFile();
+        File out = File.createTempFile("merged", ".idx");
+        List<File> runs = new ArrayList<File>();
+        try {
+            ExternalIndexBuilder.runs(crawl, dir, 16 << 10, runs);
+            assertTrue(runs.size() > 3);
+            ExternalIndexBuilder.merge(runs, out);
+            assertSameIndex(MemoryIndex.build(crawl), IndexFile.load(out));
+        } finally {
+            for (File f : runs) {
+                f.delete();
+            }
+            crawl.delete();
+            out.delete();
+        }
+    }
+
+    @Test
+    public void bigBudgetAndEmptyCrawl() throws IOException {
+        File out = File.createTempFile("merged", ".idx");
+        File crawl = crawl("http://a.com/ x y\nhttp://b.com/ y\n");
+        File empty = crawl("");
+        try {
+            assertSameIndex(MemoryIndex.build(crawl),
+                ExternalIndexBuilder.build(crawl, out, 1L << 30));
+            Index index = ExternalIndexBuilder.build(empty, out, 1L << 30);
+            assertEquals(0, index.numSites());
+            assertEquals(0, index.numTerms());
+        } finally {
+            crawl.delete();
+            empty.delete();
+            out.delete();
+        }
+    }
+}
@@ -1,14 +1,38 @@
 import java.util.Iterator;
-import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
+/**
+ * Maps implemented as hash tables with separate chaining.
+ *
+ * Hash codes are spread (the high half is mixed into the low half) and
+ * kept in the nodes, so keys whose hash codes only differ in the high
+ * bits still end up in different buckets, and chains and rehashing
+ * compare or move nodes without calling hashCode() or equals().
+ *
+ * A chain that grows to TREEIFY nodes anyway (many keys with the same
+ * hash code, say) is turned into an AVL tree ordered by hash and then
+ * by compareTo() if the keys are Comparable, like the nodes of
+ * BinarySearchTreeMap; lookups in such a bucket are O(log n) instead of
+ * O(n), even when someone picks keys to collide on purpose. A tree that
+ * shrinks to UNTREEIFY nodes becomes a plain chain again.
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
 public class HashMap<K, V> implements Map<K, V> {
 
     private static class Node<K, V> {
         K key;
 	V data;
 	Node<K, V> next;
+	// Spread hash code of the key.
+	final int hash;
 
-	Node(K key, V data) {
+	Node(int hash, K key, V data) {
+            this.hash = hash;
             this.key = key;
 	    this.data = data;
 	}
@@ -22,97 +46,589 @@ public class HashMap<K, V> implements Map<K, V> {
 	}
     }
 
+    // A node of a tree bucket. Tree nodes are also kept in a doubly
+    // linked list through next and prev, for iteration and rehashing.
+    private static final class TreeNode<K, V> extends Node<K, V> {
+        TreeNode<K, V> left;
+        TreeNode<K, V> right;
+        TreeNode<K, V> prev;
+        int height = 1;
+
+        TreeNode(Node<K, V> n) {
+            super(n.hash, n.key, n.data);
+        }
+
+        // Forget the tree, for a node that leaves it. Left behind, the
+        // links would keep nodes removed later reachable.
+        void detach() {
+            this.left = null;
+            this.right = null;
+            this.prev = null;
+            this.height = 1;
+        }
+    }
+
+    // Bucket holding a tree instead of a chain. Sits in the table in
+    // place of the first node, its own key is null.
+    private static final class TreeBin<K, V> extends Node<K, V> {
+        TreeNode<K, V> root;
+        TreeNode<K, V> first;
+        int count;
+        // Nodes the last find() or remove() looked at, for the stats.
+        int visited;
+        // Node the last remove() took out.
+        private TreeNode<K, V> removed;
+
+        TreeBin() {
+            super(0, null, null);
+        }
+
+        // Order of keys in the tree: by hash, then by compareTo() for
+        // keys of the same Comparable class; 0 means we can't tell them
+        // apart that way (which doesn't make them equal).
+        @SuppressWarnings("unchecked")
+        static int compare(int h1, Object k1, int h2, Object k2) {
+            if (h1 != h2) {
+                return h1 < h2 ? -1 : 1;
+            }
+            if (k1 instanceof Comparable && k1.getClass() == k2.getClass()) {
+                return ((Comparable<Object>) k1).compareTo(k2);
+            }
+            return 0;
+        }
+
+        TreeNode<K, V> find(int h, Object k) {
+            this.visited = 0;
+            return this.find(this.root, h, k);
+        }
+
+        private TreeNode<K, V> find(TreeNode<K, V> n, int h, Object k) {
+            while (n != null) {
+                this.visited++;
+                int c = compare(h, k, n.hash, n.key);
+                if (c < 0) {
+                    n = n.left;
+                } else if (c > 0) {
+                    n = n.right;
+                } else if (n.key.equals(k)) {
+                    return n;
+                } else {
+                    // Can't tell which side k is on, so try both.
+                    TreeNode<K, V> r = this.find(n.right, h, k);
+                    if (r != null) {
+                        return r;
+                    }
+                    n = n.left;
+                }
+            }
+            return null;
+        }
+
+        // Add a node whose key isn't in the tree yet.
+        void insert(TreeNode<K, V> x) {
+            this.root = this.insert(this.root, x);
+            x.next = this.first;
+            if (this.first != null) {
+                this.first.prev = x;
+            }
+            this.first = x;
+            this.count++;
+        }
+
+        private TreeNode<K, V> insert(TreeNode<K, V> n, TreeNode<K, V> x) {
+            if (n == null) {
+                return x;
+            }
+            if (compare(x.hash, x.key, n.hash, n.key) < 0) {
+                n.left = this.insert(n.left, x);
+            } else {
+                n.right = this.insert(n.right, x);
+            }
+            return this.rebalance(n);
+        }
+
+        // Take out the node for k and return it, null if there is none.
+        TreeNode<K, V> remove(int h, Object k) {
+            this.visited = 0;
+            this.removed = null;
+            this.root = this.delete(this.root, h, k);
+            TreeNode<K, V> x = this.removed;
+            this.removed = null;
+            if (x != null) {
+                if (x.prev != null) {
+                    x.prev.next = x.next;
+                } else {
+                    this.first = (TreeNode<K, V>) x.next;
+                }
+                if (x.next != null) {
+                    ((TreeNode<K, V>) x.next).prev = x.prev;
+                }
+                x.detach();
+                x.next = null;
+                this.count--;
+            }
+            return x;
+        }
+
+        private TreeNode<K, V> delete(TreeNode<K, V> n, int h, Object k) {
+            if (n == null) {
+                return null;
+            }
+            this.visited++;
+            int c = compare(h, k, n.hash, n.key);
+            if (c == 0 && n.key.equals(k)) {
+                this.removed = n;
+                return this.unlink(n);
+            }
+            if (c < 0) {
+                n.left = this.delete(n.left, h, k);
+            } else if (c > 0) {
+                n.right = this.delete(n.right, h, k);
+            } else {
+                n.right = this.delete(n.right, h, k);
+                if (this.removed == null) {
+                    n.left = this.delete(n.left, h, k);
+                }
+            }
+            return this.rebalance(n);
+        }
+
+        // Subtree n without its root. With two children the largest node
+        // on the left takes n's place (nodes are moved, not copied, since
+        // the map hands them out).
+        private TreeNode<K, V> unlink(TreeNode<K, V> n) {
+            if (n.left == null) {
+                return n.right;
+            }
+            if (n.right == null) {
+                return n.left;
+            }
+            TreeNode<K, V> max = n.left;
+            while (max.right != null) {
+                max = max.right;
+            }
+            max.left = this.removeMax(n.left);
+            max.right = n.right;
+            return this.rebalance(max);
+        }
+
+        private TreeNode<K, V> removeMax(TreeNode<K, V> n) {
+            if (n.right == null) {
+                return n.left;
+            }
+            n.right = this.removeMax(n.right);
+            return this.rebalance(n);
+        }
+
+        // AVL balancing, as in BinarySearchTreeMap.
+        private static int height(TreeNode<?, ?> n) {
+            return n == null ? 0 : n.height;
+        }
+
+        private static void update(TreeNode<?, ?> n) {
+            n.height = 1 + Math.max(height(n.left), height(n.right));
+        }
+
+        private static int balance(TreeNode<?, ?> n) {
+            return height(n.left) - height(n.right);
+        }
+
+        private TreeNode<K, V> rotateRight(TreeNode<K, V> n) {
+            TreeNode<K, V> l = n.left;
+            n.left = l.right;
+            l.right = n;
+            update(n);
+            update(l);
+            return l;
+        }
+
+        private TreeNode<K, V> rotateLeft(TreeNode<K, V> n) {
+            TreeNode<K, V> r = n.right;
+            n.right = r.left;
+            r.left = n;
+            update(n);
+            update(r);
+            return r;
+        }
+
+        private TreeNode<K, V> rebalance(TreeNode<K, V> n) {
+            update(n);
+            int b = balance(n);
+            if (b > 1) {
+                if (balance(n.left) < 0) {
+                    n.left = this.rotateLeft(n.left);
+                }
+                return this.rotateRight(n);
+            }
+            if (b < -1) {
+                if (balance(n.right) > 0) {
+                    n.right = this.rotateRight(n.right);
+                }
+                return this.rotateLeft(n);
+            }
+            return n;
+        }
+    }
+
+    // Number of old buckets moved per operation while an incremental
+    // rehash is in progress.
+    private static final int MIGRATE_STEP = 4;
+
+    // A chain this long becomes a tree; a tree this small a chain again.
+    static final int TREEIFY = 8;
+    static final int UNTREEIFY = 6;
+
+    // Below this many buckets long chains are more likely a table that
+    // is about to grow than bad hashing, so we don't make trees yet.
+    private static final int MIN_TREEIFY_CAPACITY = 64;
+
     private Node[] table;
     private int numKeys;
     private int tableSize;
-    private StringBuilder stringBuilder;
-    
+    private int modCount;
+
+    // Only used for incremental rehashing: the table we are moving away
+    // from, its size, and the index of the first old bucket that has not
+    // been moved yet. Keys in old buckets below migrated are all in the
+    // new table already; oldTable is null when no rehash is in progress.
+    private final boolean incremental;
+    private Node[] oldTable;
+    private int oldSize;
+    private int migrated;
+
+    // Null unless enableStats() was called; see HashMapStats.
+    private HashMapStats stats;
+
     public HashMap() {
+        this(false);
+    }
+
+    /**
+     * Create an empty map.
+     *
+     * @param incremental If true, growing the table does not move all
+     *     keys at once; instead every following operation moves a few
+     *     buckets until the old table is empty. This bounds the cost of
+     *     any single insert at the price of checking two tables while a
+     *     rehash is in progress.
+     */
+    public HashMap(boolean incremental) {
         this.table = new Node[10];
 	this.numKeys = 0;
 	this.tableSize = 10;
+	this.incremental = incremental;
+    }
+
+    /**
+     * Start collecting statistics about this map.
+     *
+     * @return The statistics, the same object until disableStats().
+     */
+    public HashMapStats enableStats() {
+        if (this.stats == null) {
+            this.stats = new HashMapStats(this);
+        }
+        return this.stats;
+    }
+
+    /**
+     * Stop collecting statistics about this map and forget them.
+     */
+    public void disableStats() {
+        this.stats = null;
+    }
+
+    /**
+     * Statistics about this map, if they are being collected.
+     *
+     * @return The statistics, or null if enableStats() wasn't called.
+     */
+    public HashMapStats stats() {
+        return this.stats;
     }
 
+    // Number of buckets, for the statistics.
+    int capacity() {
+        return this.tableSize;
+    }
+
+    // All of insert(), computeIfAbsent() and merge() hash the key once,
+    // scan its bucket once, and if the key isn't there add it to the
+    // bucket they scanned.
     @Override
     public void insert(K k, V v) throws IllegalArgumentException {
-        if (this.has(k)) {
+        if (this.stats != null) {
+            this.stats.insert();
+        }
+        int h = this.hashOf(k);
+        this.migrate();
+        if (this.scan(this.tableFor(h)[this.bucketFor(h)], h, k) != null) {
             throw new IllegalArgumentException("key already in map.");
 	}
-	int index = this.hash(k);
-	Node<K, V> toAdd = new Node<K, V>(k, v);
-	toAdd.next = table[index];
-	this.table[index] = toAdd;
+	this.add(h, new Node<K, V>(h, k, v));
+    }
+
+    // Link a new node into the bucket for hash h, which must not hold
+    // its key yet. Keys of unmigrated buckets go into the old table,
+    // that's where lookups expect them.
+    private void add(int h, Node<K, V> toAdd) {
+	this.link(this.tableFor(h), this.bucketFor(h), toAdd);
 	this.numKeys++;
+	this.modCount++;
 	if (((1.0*this.numKeys)/this.tableSize) >= 0.75) {
             this.rehash();
 	} 
     }
 
+    // Put a node into bucket index of table t, turning the bucket into a
+    // tree if that makes its chain too long.
+    @SuppressWarnings("unchecked")
+    private void link(Node[] t, int index, Node<K, V> n) {
+        Node<K, V> head = t[index];
+        if (head instanceof TreeBin) {
+            ((TreeBin<K, V>) head).insert(new TreeNode<K, V>(n));
+            return;
+        }
+        n.next = head;
+        t[index] = n;
+        if (t.length >= MIN_TREEIFY_CAPACITY) {
+            int length = 0;
+            for (Node<K, V> c = n; c != null && length < TREEIFY; c = c.next) {
+                length++;
+            }
+            if (length == TREEIFY) {
+                TreeBin<K, V> bin = new TreeBin<K, V>();
+                for (Node<K, V> c = n; c != null; c = c.next) {
+                    bin.insert(new TreeNode<K, V>(c));
+                }
+                t[index] = bin;
+            }
+        }
+    }
+
+    // First node of a bucket, whether it's a chain or a tree.
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V> first(Node<K, V> head) {
+        return head instanceof TreeBin ? ((TreeBin<K, V>) head).first : head;
+    }
+
+    @Override
+    public V computeIfAbsent(K k, Function<? super K, ? extends V> f)
+        throws IllegalArgumentException {
+        if (this.stats != null) {
+            this.stats.compute();
+        }
+        int h = this.hashOf(k);
+        this.migrate();
+        Node<K, V> n = this.scan(this.tableFor(h)[this.bucketFor(h)], h, k);
+        if (n != null) {
+            return n.data;
+        }
+        int expected = this.modCount;
+        V v = f.apply(k);
+        if (this.modCount != expected) {
+            throw new ConcurrentModificationException();
+        }
+        this.add(h, new Node<K, V>(h, k, v));
+        return v;
+    }
+
+    @Override
+    public V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f)
+        throws IllegalArgumentException {
+        if (this.stats != null) {
+            this.stats.merge();
+        }
+        int h = this.hashOf(k);
+        this.migrate();
+        Node<K, V> n = this.scan(this.tableFor(h)[this.bucketFor(h)], h, k);
+        if (n != null) {
+            n.data = f.apply(n.data, v);
+            return n.data;
+        }
+        this.add(h, new Node<K, V>(h, k, v));
+        return v;
+    }
+
+    // Grows the table once for all the new keys up front, and reads the
+    // nodes of another HashMap directly instead of looking up every key.
+    @Override
+    @SuppressWarnings("unchecked")
+    public void insertAll(Map<K, V> other) throws IllegalArgumentException {
+        int size = this.tableSize;
+        while (((1.0*(this.numKeys + other.size()))/size) >= 0.75) {
+            size *= 2;
+        }
+        if (size != this.tableSize) {
+            this.resize(size);
+        }
+        if (!(other instanceof HashMap)) {
+            Map.super.insertAll(other);
+            return;
+        }
+        HashMap<K, V> o = (HashMap<K, V>) other;
+        while (o.oldTable != null) {
+            o.migrate();
+        }
+        for (Node n : o.table) {
+            for (Node<K, V> cur = first(n); cur != null; cur = cur.next) {
+                this.insert(cur.key, cur.data);
+            }
+        }
+    }
+
     @Override
     public V remove(K k) throws IllegalArgumentException {
-    	int index = this.hash(k);
-	if (this.table[index] != null) {
-	    Node<K, V> head = this.table[index];
-	    if (head.key.equals(k)) {
-		numKeys--;
-		V v = head.data;
-		this.table[index] = null;
-		return v;
-	    } else {
-		while (head.next != null) {
-		    if (head.next.key.equals(k)) {
-			numKeys--;
-		        V v = head.next.data;
-			head.next = head.next.next;
-			return v;
-		    }
-		    head = head.next;
-		}
-		throw new IllegalArgumentException();
-	    }
-	} else {
-	    throw new IllegalArgumentException();
-	}
+        if (this.stats != null) {
+            this.stats.remove();
+        }
+        int h = this.hashOf(k);
+        this.migrate();
+        Node[] t = this.tableFor(h);
+        int index = this.bucketFor(h);
+        Node<K, V> head = t[index];
+        if (head instanceof TreeBin) {
+            TreeBin<K, V> bin = (TreeBin<K, V>) head;
+            TreeNode<K, V> n = bin.remove(h, k);
+            this.chain(bin.visited);
+            if (n == null) {
+                throw new IllegalArgumentException();
+            }
+            if (bin.count <= UNTREEIFY) {
+                // The tree nodes are still linked, they make the chain.
+                for (Node<K, V> c = bin.first; c != null; c = c.next) {
+                    ((TreeNode<K, V>) c).detach();
+                }
+                t[index] = bin.first;
+            }
+            this.numKeys--;
+            this.modCount++;
+            return n.data;
+        }
+        if (head == null) {
+            this.chain(0);
+            throw new IllegalArgumentException();
+        }
+        int chain = 1;
+        if (head.hash == h && head.key.equals(k)) {
+            this.chain(chain);
+            this.numKeys--;
+            this.modCount++;
+            t[index] = head.next;
+            return head.data;
+        }
+        while (head.next != null) {
+            chain++;
+            if (head.next.hash == h && head.next.key.equals(k)) {
+                this.chain(chain);
+                this.numKeys--;
+                this.modCount++;
+                V v = head.next.data;
+                head.next = head.next.next;
+                return v;
+            }
+            head = head.next;
+        }
+        this.chain(chain);
+        throw new IllegalArgumentException();
     }
 
     @Override
     public void put(K k, V v) throws IllegalArgumentException {
-	int index = this.hash(k);
-	Node<K, V> head = this.table[index];
-	while (head != null) {
-            if (head.key.equals(k)) {
-		
-                head.data = v;
-		return;
-	    }
-	    head = head.next;
+        if (this.stats != null) {
+            this.stats.put();
+        }
+	Node<K, V> head = this.find(k);
+	if (head == null) {
+            throw new IllegalArgumentException();
 	}
-        throw new IllegalArgumentException();
+	head.data = v;
     }
 
     @Override
     public V get(K k) throws IllegalArgumentException {
-        int index = this.hash(k);
-	Node<K, V> head = table[index];
-	while (head != null) {
-            if (head.key.equals(k)) {
-                return head.data;
-	    }
-	    head = head.next;
+        if (this.stats != null) {
+            this.stats.get();
+        }
+	Node<K, V> head = this.find(k);
+	if (head == null) {
+            throw new IllegalArgumentException();
 	}
-        throw new IllegalArgumentException();
+	return head.data;
     }
 
-    private int hash(K k) throws IllegalArgumentException {
+    // Spread hash code of a key: the high half is folded into the low
+    // half, which is what picks the bucket.
+    private int hashOf(K k) throws IllegalArgumentException {
 	if (k == null) {
             throw new IllegalArgumentException();
 	}
-	int index = k.hashCode() % this.tableSize;
-	if (index < 0) {
-	    index += this.tableSize;
-	}
-	System.err.println("index: " + index);
-	return index;
+	int h = k.hashCode();
+	return h ^ (h >>> 16);
+    }
+
+    // Bucket index of the given hash code in a table of the given size.
+    private int index(int h, int size) {
+        int index = h % size;
+        if (index < 0) {
+            index += size;
+        }
+        return index;
+    }
+
+    // True if keys with the given hash code would still be in the old
+    // table because we have not gotten around to migrating their bucket
+    // yet.
+    private boolean inOldTable(int h) {
+        return this.oldTable != null
+            && this.index(h, this.oldSize) >= this.migrated;
+    }
+
+    // Table holding the bucket for the given hash code.
+    private Node[] tableFor(int h) {
+        return this.inOldTable(h) ? this.oldTable : this.table;
+    }
+
+    // Index of the bucket for the given hash code in tableFor(h).
+    private int bucketFor(int h) {
+        return this.inOldTable(h) ? this.index(h, this.oldSize) : this.index(h, this.tableSize);
+    }
+
+    // Return node for given key or null if the key is not in the map.
+    private Node<K, V> find(K k) throws IllegalArgumentException {
+        int h = this.hashOf(k);
+        this.migrate();
+        return this.scan(this.tableFor(h)[this.bucketFor(h)], h, k);
+    }
+
+    // Return node for given key (with spread hash h) in the bucket
+    // starting at head, or null.
+    @SuppressWarnings("unchecked")
+    private Node<K, V> scan(Node<K, V> head, int h, K k) {
+        if (head instanceof TreeBin) {
+            TreeBin<K, V> bin = (TreeBin<K, V>) head;
+            Node<K, V> n = bin.find(h, k);
+            this.chain(bin.visited);
+            return n;
+        }
+        int chain = 0;
+        while (head != null) {
+            chain++;
+            if (head.hash == h && head.key.equals(k)) {
+                this.chain(chain);
+                return head;
+            }
+            head = head.next;
+        }
+        this.chain(chain);
+        return null;
+    }
+
+    // Record how many nodes a lookup looked at.
+    private void chain(int length) {
+        if (this.stats != null) {
+            this.stats.chain(length);
+        }
     }
     
     @Override
@@ -120,15 +636,10 @@ public class HashMap<K, V> implements Map<K, V> {
 	if (k == null) {
             return false;
 	}
-    	int index = this.hash(k);
-	Node<K, V> head = this.table[index];
-	while (head != null) {
-            if (head.key.equals(k)) {
-                return true;
-	    }
-	    head = head.next;
-	}
-        return false;
+        if (this.stats != null) {
+            this.stats.has();
+        }
+	return this.find(k) != null;
     }
 
     @Override
@@ -136,45 +647,152 @@ public class HashMap<K, V> implements Map<K, V> {
     	return this.numKeys;
     }
 
+    // Iterator that walks the buckets of the table directly, so it needs
+    // no extra memory and stops as soon as the caller does. Fails fast
+    // with a ConcurrentModificationException if the map is changed while
+    // we're iterating (other than through put()).
+    private class BucketIterator implements Iterator<K> {
+        private final int expected = HashMap.this.modCount;
+        private int bucket;
+        private Node<K, V> next;
+
+        BucketIterator() {
+            this.next = this.scan();
+        }
+
+        // First node in the next non-empty bucket, or null at the end.
+        private Node<K, V> scan() {
+            Node[] t = HashMap.this.table;
+            while (this.bucket < t.length) {
+                Node<K, V> n = first(t[this.bucket++]);
+                if (n != null) {
+                    return n;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public K next() {
+            if (HashMap.this.modCount != this.expected) {
+                throw new ConcurrentModificationException();
+            }
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            K k = this.next.key;
+            this.next = this.next.next != null ? this.next.next : this.scan();
+            return k;
+        }
+    }
+
     @Override
     public Iterator<K> iterator() {
-    	ArrayList<K> iterable = new ArrayList<K>();
-	for (int i = 0; i < this.tableSize; i++) {
-	    Node<K, V> head = table[i];
-            while (head != null) {
-                iterable.add(head.key);
-		head = head.next;
-	    }
-	}
-	return iterable.iterator();
+        // Finish an incremental rehash first; otherwise a get() during
+        // iteration could move a bucket we haven't gotten to yet into
+        // one we've already passed.
+        while (this.oldTable != null) {
+            this.migrate();
+        }
+        return new BucketIterator();
+    }
+
+    // Move all nodes of the given old bucket into the current table. The
+    // nodes themselves are relinked, nothing is allocated (unless a
+    // bucket turns into a tree). Nodes of a tree go into chains, so they
+    // drop their tree links.
+    private void moveBucket(Node[] from, int i) {
+        Node<K, V> n = first(from[i]);
+        from[i] = null;
+        while (n != null) {
+            Node<K, V> next = n.next;
+            if (n instanceof TreeNode) {
+                ((TreeNode<K, V>) n).detach();
+            }
+            this.link(this.table, this.index(n.hash, this.tableSize), n);
+            n = next;
+        }
+    }
+
+    // Make some progress on an incremental rehash, if one is going on.
+    private void migrate() {
+        if (this.oldTable == null) {
+            return;
+        }
+        long start = this.stats != null ? System.nanoTime() : 0;
+        int end = Math.min(this.migrated + MIGRATE_STEP, this.oldSize);
+        while (this.migrated < end) {
+            this.moveBucket(this.oldTable, this.migrated);
+            this.migrated++;
+        }
+        if (this.migrated == this.oldSize) {
+            this.oldTable = null;
+        }
+        if (this.stats != null) {
+            this.stats.resizeTime(System.nanoTime() - start);
+        }
     }
 
+    // Double the table size. Unless we're incremental, all nodes get
+    // relinked into the new table right away.
     private void rehash() {
-	Iterator<K> iter = this.iterator();
-	ArrayList<Node<K, V>> nodes = new ArrayList<>();
-	while (iter.hasNext()) {
-            K key = iter.next();
-	    V data = get(key);
-	    Node<K, V> n = new Node<K, V>(key,data);
-	    nodes.add(n);
-	}
-        this.table = new Node[this.tableSize * 2];
-	this.tableSize *= 2;
-	this.numKeys = 0;
-	int numElems =  nodes.size();
-	for (int i = 0; i < numElems; i++) {
-            this.insert(nodes.get(i).getKey(),
-			nodes.get(i).getData());
-	}
+        this.resize(this.tableSize * 2, this.incremental);
+    }
+
+    // Change the table size and move all nodes right away, even if we're
+    // incremental; for bulk inserts, which are O(n) anyway.
+    private void resize(int size) {
+        this.resize(size, false);
+    }
+
+    private void resize(int size, boolean incremental) {
+        // Can't have two old tables; only happens if something keeps
+        // inserting without ever giving migrate() a chance, so just
+        // finish the previous rehash first.
+        while (this.oldTable != null) {
+            this.migrate();
+        }
+        long start = this.stats != null ? System.nanoTime() : 0;
+        Node[] old = this.table;
+        int oldSize = this.tableSize;
+        this.table = new Node[size];
+        this.tableSize = size;
+        if (incremental) {
+            this.oldTable = old;
+            this.oldSize = oldSize;
+            this.migrated = 0;
+        } else {
+            for (int i = 0; i < oldSize; i++) {
+                this.moveBucket(old, i);
+            }
+        }
+        if (this.stats != null) {
+            this.stats.resize();
+            this.stats.resizeTime(System.nanoTime() - start);
+        }
     }
 
     @Override
     public String toString() {
-	this.stringBuilder = new StringBuilder();
-        this.stringBuilder.append("{");
-        int index = 0;
+	StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("{");
+	if (this.oldTable != null) {
+	    for (int i = this.migrated; i < this.oldSize; i++) {
+		for (Node cur = first(this.oldTable[i]); cur != null; cur = cur.next) {
+		    stringBuilder.append(cur.key.toString());
+		    stringBuilder.append(": ");
+		    stringBuilder.append(cur.data.toString());
+		    stringBuilder.append("\n");
+		}
+	    }
+	}
 	for (int i = 0; i< this.tableSize; i++) {
-	    Node cur = this.table[i];
+	    Node cur = first(this.table[i]);
             while (cur != null) {
                 stringBuilder.append(cur.key.toString());
 		stringBuilder.append(": ");
@@ -184,12 +802,12 @@ public class HashMap<K, V> implements Map<K, V> {
 	    }
 	}
 
-        int length = this.stringBuilder.length();
+        int length = stringBuilder.length();
         if (length > 1) {
-            this.stringBuilder.setLength(length - 1);
+            stringBuilder.setLength(length - 1);
         }
-        this.stringBuilder.append("}");
+        stringBuilder.append("}");
 
-        return this.stringBuilder.toString();
+        return stringBuilder.toString();
     }
 }
@@ -0,0 +1,255 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics about how a HashMap is used and how well it performs.
+ *
+ * A HashMap only collects statistics after HashMap.enableStats(); until
+ * then all it does is check one field for null on every operation. Once
+ * enabled we count:
+ *
+ * - operations: insert(), remove(), put(), get(), has(),
+ *   computeIfAbsent() and merge() calls;
+ * - chain lengths: for every lookup of a key, how many nodes we had to
+ *   look at in its bucket, as a histogram where slot i counts lookups
+ *   that looked at i nodes (the last slot also counts longer chains);
+ * - resizes: how often the table grew and the total time spent moving
+ *   keys, including the steps of an incremental rehash.
+ *
+ * The size, capacity and load factor are read from the map when asked.
+ * Counting can be paused with setEnabled(false), also through JMX after
+ * register(); the counters are plain longs, so like the map itself they
+ * are meant to be updated by one thread at a time.
+ */
+public final class HashMapStats implements HashMapStatsMBean {
+
+    /** Number of slots in the chain length histogram. */
+    public static final int HISTOGRAM = 16;
+
+    private final HashMap<?, ?> map;
+    private volatile boolean enabled = true;
+    private long inserts;
+    private long removes;
+    private long puts;
+    private long gets;
+    private long has;
+    private long computes;
+    private long merges;
+    private final long[] chains = new long[HISTOGRAM];
+    private long resizes;
+    private long resizeNanos;
+
+    HashMapStats(HashMap<?, ?> map) {
+        this.map = map;
+    }
+
+    /**
+     * Make these statistics available through JMX, under the object name
+     * "HashMap:type=HashMapStats,name=" followed by the given name.
+     *
+     * @param name Name that tells this map apart from others.
+     * @return The object name the statistics were registered under.
+     * @throws IllegalArgumentException If the name is not valid or taken.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName o = new ObjectName("HashMap:type=HashMapStats,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, o);
+            return o;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("cannot register " + name, e);
+        }
+    }
+
+    void insert() {
+        if (this.enabled) {
+            this.inserts++;
+        }
+    }
+
+    void remove() {
+        if (this.enabled) {
+            this.removes++;
+        }
+    }
+
+    void put() {
+        if (this.enabled) {
+            this.puts++;
+        }
+    }
+
+    void get() {
+        if (this.enabled) {
+            this.gets++;
+        }
+    }
+
+    void has() {
+        if (this.enabled) {
+            this.has++;
+        }
+    }
+
+    void compute() {
+        if (this.enabled) {
+            this.computes++;
+        }
+    }
+
+    void merge() {
+        if (this.enabled) {
+            this.merges++;
+        }
+    }
+
+    void chain(int length) {
+        if (this.enabled) {
+            this.chains[Math.min(length, HISTOGRAM - 1)]++;
+        }
+    }
+
+    void resize() {
+        if (this.enabled) {
+            this.resizes++;
+        }
+    }
+
+    void resizeTime(long nanos) {
+        if (this.enabled) {
+            this.resizeNanos += nanos;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getInserts() {
+        return this.inserts;
+    }
+
+    @Override
+    public long getRemoves() {
+        return this.removes;
+    }
+
+    @Override
+    public long getPuts() {
+        return this.puts;
+    }
+
+    @Override
+    public long getGets() {
+        return this.gets;
+    }
+
+    @Override
+    public long getHas() {
+        return this.has;
+    }
+
+    @Override
+    public long getComputes() {
+        return this.computes;
+    }
+
+    @Override
+    public long getMerges() {
+        return this.merges;
+    }
+
+    /**
+     * Number of times a key was looked up in its bucket; every operation
+     * does this once.
+     *
+     * @return Total of the chain length histogram.
+     */
+    @Override
+    public long getLookups() {
+        long n = 0;
+        for (long c : this.chains) {
+            n += c;
+        }
+        return n;
+    }
+
+    @Override
+    public long[] getChainLengthHistogram() {
+        return this.chains.clone();
+    }
+
+    @Override
+    public double getAverageChainLength() {
+        long n = 0;
+        long sum = 0;
+        for (int i = 0; i < HISTOGRAM; i++) {
+            n += this.chains[i];
+            sum += i * this.chains[i];
+        }
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    @Override
+    public int getSize() {
+        return this.map.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return this.map.capacity();
+    }
+
+    @Override
+    public double getLoadFactor() {
+        return (double) this.map.size() / this.map.capacity();
+    }
+
+    @Override
+    public long getResizes() {
+        return this.resizes;
+    }
+
+    @Override
+    public long getResizeNanos() {
+        return this.resizeNanos;
+    }
+
+    /**
+     * Set all counters back to zero.
+     */
+    @Override
+    public void reset() {
+        this.inserts = 0;
+        this.removes = 0;
+        this.puts = 0;
+        this.gets = 0;
+        this.has = 0;
+        this.computes = 0;
+        this.merges = 0;
+        Arrays.fill(this.chains, 0);
+        this.resizes = 0;
+        this.resizeNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "HashMapStats[inserts " + this.inserts + ", removes " + this.removes
+            + ", puts " + this.puts + ", gets " + this.gets + ", has " + this.has
+            + ", computes " + this.computes + ", merges " + this.merges
+            + ", chains " + Arrays.toString(this.chains)
+            + ", load factor " + this.getLoadFactor()
+            + ", resizes " + this.resizes + " in " + this.resizeNanos + " ns]";
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Management interface of HashMapStats, so the statistics of a HashMap
+ * can be read (and switched on and off) with jconsole or any other JMX
+ * client. See HashMapStats for what the numbers mean.
+ */
+public interface HashMapStatsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getInserts();
+
+    long getRemoves();
+
+    long getPuts();
+
+    long getGets();
+
+    long getHas();
+
+    long getComputes();
+
+    long getMerges();
+
+    long getLookups();
+
+    long[] getChainLengthHistogram();
+
+    double getAverageChainLength();
+
+    int getSize();
+
+    int getCapacity();
+
+    double getLoadFactor();
+
+    long getResizes();
+
+    long getResizeNanos();
+
+    void reset();
+}
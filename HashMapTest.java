@@ -2,7 +2,11 @@
 //mmacfar2 Matthew MacFarquhar mmacfar2@jhu.edu
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import java.lang.management.ManagementFactory;
 import java.util.Iterator;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 public class HashMapTest extends MapTestBase {
     @Override
     protected Map<String, Integer> createMap() {
@@ -31,4 +35,180 @@ public class HashMapTest extends MapTestBase {
 	assertEquals("D", iter.next());
 	
     }
+
+    @Test
+    public void removeHeadKeepsRestOfChain() {
+        m.insert("A", 1);
+        m.insert("K", 2);
+        m.remove("K");
+        assertEquals(true, m.has("A"));
+    }
+
+    @Test
+    public void rehashKeepsEverything() {
+        for (int i = 0; i < 1000; i++) {
+            m.insert("key" + i, i);
+        }
+        assertEquals(1000, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), m.get("key" + i));
+        }
+    }
+
+    @Test
+    public void incrementalRehashKeepsEverything() {
+        m = new HashMap<>(true);
+        for (int i = 0; i < 1000; i++) {
+            m.insert("key" + i, i);
+            if (i % 3 == 0) {
+                assertEquals(Integer.valueOf(i), m.remove("key" + i));
+            }
+        }
+        assertEquals(666, m.size());
+        int count = 0;
+        for (String k : m) {
+            count++;
+        }
+        assertEquals(666, count);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 3 != 0, m.has("key" + i));
+        }
+    }
+
+    @Test
+    public void statsCountOperations() {
+        HashMap<String, Integer> h = new HashMap<>();
+        assertEquals(null, h.stats());
+        HashMapStats stats = h.enableStats();
+        for (int i = 0; i < 100; i++) {
+            h.insert("key" + i, i);
+        }
+        h.get("key1");
+        h.put("key2", 5);
+        h.has("key3");
+        h.has("nope");
+        h.remove("key4");
+        h.computeIfAbsent("key5", k -> 0);
+        h.computeIfAbsent("new", k -> 0);
+        h.merge("key6", 1, Integer::sum);
+        assertEquals(100, stats.getInserts());
+        assertEquals(1, stats.getGets());
+        assertEquals(1, stats.getPuts());
+        assertEquals(2, stats.getHas());
+        assertEquals(1, stats.getRemoves());
+        assertEquals(2, stats.getComputes());
+        assertEquals(1, stats.getMerges());
+        assertEquals(108, stats.getLookups());
+        assertEquals(HashMapStats.HISTOGRAM, stats.getChainLengthHistogram().length);
+        assertEquals(true, stats.getResizes() > 0);
+        assertEquals(100, stats.getSize());
+        assertEquals(true, stats.getLoadFactor() < 0.75);
+    }
+
+    @Test
+    public void statsCanBePaused() {
+        HashMap<String, Integer> h = new HashMap<>();
+        HashMapStats stats = h.enableStats();
+        stats.setEnabled(false);
+        h.insert("A", 1);
+        assertEquals(0, stats.getInserts());
+        stats.setEnabled(true);
+        h.insert("B", 1);
+        assertEquals(1, stats.getInserts());
+        stats.reset();
+        assertEquals(0, stats.getInserts());
+        assertEquals(0, stats.getLookups());
+        h.disableStats();
+        assertEquals(null, h.stats());
+    }
+
+    @Test
+    public void statsThroughJmx() throws Exception {
+        HashMap<String, Integer> h = new HashMap<>();
+        ObjectName name = h.enableStats().register("statsThroughJmx");
+        h.insert("A", 1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(name, "Inserts"));
+        server.setAttribute(name, new Attribute("Enabled", false));
+        h.insert("B", 2);
+        assertEquals(1L, server.getAttribute(name, "Inserts"));
+        server.unregisterMBean(name);
+    }
+
+    // 2^n different strings of length 2n with the same hash code ("Aa"
+    // and "BB" hash alike).
+    private static String collider(int i, int n) {
+        StringBuilder s = new StringBuilder();
+        for (int b = 0; b < n; b++) {
+            s.append((i >> b & 1) == 0 ? "Aa" : "BB");
+        }
+        return s.toString();
+    }
+
+    @Test
+    public void collidingKeysStayFast() {
+        HashMap<String, Integer> h = new HashMap<>(true);
+        for (int i = 0; i < 4096; i++) {
+            h.insert(collider(i, 12), i);
+        }
+        HashMapStats stats = h.enableStats();
+        for (int i = 0; i < 4096; i++) {
+            assertEquals(Integer.valueOf(i), h.get(collider(i, 12)));
+        }
+        assertEquals(false, h.has(collider(0, 11)));
+        // A chain would make most lookups look at thousands of nodes.
+        long[] chains = stats.getChainLengthHistogram();
+        assertEquals(0, chains[HashMapStats.HISTOGRAM - 1]);
+        for (int i = 0; i < 4096; i += 2) {
+            assertEquals(Integer.valueOf(i), h.remove(collider(i, 12)));
+        }
+        assertEquals(2048, h.size());
+        int count = 0;
+        for (String k : h) {
+            assertEquals(true, h.has(k));
+            count++;
+        }
+        assertEquals(2048, count);
+    }
+
+    // Equal hash codes and not Comparable, so trees can't order them.
+    private static final class Opaque {
+        private final int id;
+
+        Opaque(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Opaque && ((Opaque) o).id == this.id;
+        }
+    }
+
+    @Test
+    public void collidingOpaqueKeysWork() {
+        HashMap<Opaque, Integer> h = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            h.insert(new Opaque(i), i);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Integer.valueOf(i), h.get(new Opaque(i)));
+        }
+        // Down to a chain again and back.
+        for (int i = 0; i < 197; i++) {
+            assertEquals(Integer.valueOf(i), h.remove(new Opaque(i)));
+        }
+        assertEquals(3, h.size());
+        for (int i = 0; i < 197; i++) {
+            h.insert(new Opaque(i), -i);
+        }
+        assertEquals(Integer.valueOf(-5), h.get(new Opaque(5)));
+        assertEquals(Integer.valueOf(198), h.get(new Opaque(198)));
+        assertEquals(200, h.size());
+    }
 }
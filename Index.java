@@ -0,0 +1,64 @@
+import java.util.List;
+
+/**
+ * Inverted index from words to the sites they appear on.
+ *
+ * Sites are identified by dense int IDs (see TermDictionary) and the
+ * sites of a word are returned as a PostingList of those IDs. How the
+ * index is stored is up to the implementation: MemoryIndex builds it on
+ * the heap from a crawl file, MappedIndex reads a file written by
+ * IndexFile straight out of the OS page cache.
+ */
+public interface Index {
+    /**
+     * Sites a word appears on.
+     *
+     * @param term The word.
+     * @return Posting list of site IDs, empty if the word is unknown.
+     */
+    PostingList postings(String term);
+
+    /**
+     * Query for the sites a word appears on. Indexes that can read a
+     * word's sites without building one posting list for them override
+     * this to do so.
+     *
+     * @param term The word.
+     * @return The query, matching nothing if the word is unknown.
+     */
+    default Query term(String term) {
+        return Query.term(term, this.postings(term));
+    }
+
+    /**
+     * Words starting with a prefix, found without looking at the others.
+     *
+     * @param prefix The prefix.
+     * @return Every word in the index that starts with prefix, once,
+     *     in no particular order.
+     */
+    List<String> terms(String prefix);
+
+    /**
+     * URL of a site.
+     *
+     * @param doc The site ID.
+     * @return The URL of that site.
+     * @throws IllegalArgumentException If there is no such site.
+     */
+    String site(int doc);
+
+    /**
+     * Number of sites.
+     *
+     * @return Number of sites, site IDs are 0 up to this (exclusive).
+     */
+    int numSites();
+
+    /**
+     * Number of words.
+     *
+     * @return Number of distinct words in the index.
+     */
+    int numTerms();
+}
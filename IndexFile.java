@@ -0,0 +1,309 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk format for indexes.
+ *
+ * An index file is built once and afterwards opened with load(), which
+ * memory-maps it instead of reading it: startup costs a handful of
+ * system calls no matter how big the index is, and several processes
+ * serving the same file share one copy in the OS page cache.
+ *
+ * Layout (all numbers big-endian):
+ *
+ *   header     int magic, int version, int sites, int terms,
+ *              long offset of the tables (everything after postings)
+ *   postings   encoded PostingLists back to back; no list crosses a
+ *              WINDOW boundary (we pad instead) so each list can be
+ *              sliced out of a single mapping; a list can't be
+ *              longer than WINDOW
+ *   sites      int[sites + 1] offsets into the site bytes, then the
+ *              UTF-8 bytes of all URLs
+ *   terms      int[terms + 1] offsets into the term bytes, then the
+ *              UTF-8 bytes of all words, sorted by unsigned byte order
+ *   lists      long[terms + 1] offsets of each term's posting list,
+ *              relative to the end of the header
+ *
+ * The postings come first so that a Writer can stream them out as they
+ * come, putting the tables aside until the end.
+ */
+public final class IndexFile {
+
+    static final int MAGIC = 0x4a485547;
+    static final int VERSION = 2;
+    static final int HEADER = 24;
+
+    // Postings are mapped in windows of this many bytes; Java can't map
+    // more than 2GB into a single buffer. Writer and MappedIndex take
+    // other sizes too, for tests; a file has to be read with the window
+    // it was written with.
+    static final long WINDOW = 1L << 30;
+
+    private IndexFile() {}
+
+    /**
+     * Order of terms in the file, unsigned UTF-8 byte order. For ASCII
+     * this is the same as String.compareTo().
+     */
+    static final Comparator<byte[]> ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return Arrays.compareUnsigned(a, b);
+        }
+    };
+
+    /**
+     * Write a complete in-memory index.
+     *
+     * @param index The index.
+     * @param file The file to write.
+     * @throws IOException If writing fails.
+     */
+    public static void write(MemoryIndex index, File file) throws IOException {
+        write(index, file, WINDOW);
+    }
+
+    // Write with a different window size.
+    static void write(MemoryIndex index, File file, long window) throws IOException {
+        int n = index.numTerms();
+        byte[][] words = new byte[n][];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            words[i] = index.terms().bytes(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> ORDER.compare(words[a], words[b]));
+
+        String[] sites = new String[index.numSites()];
+        for (int i = 0; i < sites.length; i++) {
+            sites[i] = index.site(i);
+        }
+        try (Writer w = new Writer(file, window)) {
+            for (int i : order) {
+                w.add(words[i], index.postings(i));
+            }
+            w.finish(sites);
+        }
+    }
+
+    /**
+     * Open an index file.
+     *
+     * @param file The file to map.
+     * @return The index, backed directly by the mapped file.
+     * @throws IOException If the file can't be mapped or isn't an index.
+     */
+    public static MappedIndex load(File file) throws IOException {
+        return MappedIndex.open(file);
+    }
+
+    // A table written to a temporary file until finish() copies it into
+    // place, so the writer doesn't keep it in memory.
+    private static final class Spill implements AutoCloseable {
+        private final File file;
+        private final DataOutputStream out;
+
+        Spill(File dir) throws IOException {
+            this.file = File.createTempFile("jhugle-table", ".tmp", dir);
+            this.out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(this.file), 1 << 16));
+        }
+
+        // Copy everything written to the channel at position; returns the
+        // position after it.
+        long copyTo(FileChannel channel, long position) throws IOException {
+            this.out.flush();
+            try (FileChannel in = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+                long size = in.size();
+                channel.position(position);
+                for (long done = 0; done < size; ) {
+                    done += in.transferTo(done, size - done, channel);
+                }
+                return position + size;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.out.close();
+            } finally {
+                this.file.delete();
+            }
+        }
+    }
+
+    /**
+     * Streams an index file out term by term.
+     *
+     * Terms must be added in ORDER, each one exactly once, and sites in
+     * order of their IDs; afterwards finish() writes the tables and the
+     * header. Until then the tables go to temporary files next to the
+     * index, so the writer's memory doesn't grow with the number of
+     * terms or sites. Closing without calling finish() leaves a file
+     * that load() will reject.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long window;
+        private long position;
+        private final Spill siteOffsets;
+        private final Spill siteBytes;
+        private final Spill termOffsets;
+        private final Spill termBytes;
+        private final Spill listOffsets;
+        private int sites;
+        private long siteLength;
+        private int count;
+        private long termLength;
+        private byte[] last;
+
+        /**
+         * Start a new index file.
+         *
+         * @param file The file to write, replaced if it exists.
+         * @throws IOException If the file can't be created.
+         */
+        public Writer(File file) throws IOException {
+            this(file, WINDOW);
+        }
+
+        // Start a file with a different window size.
+        Writer(File file, long window) throws IOException {
+            this.window = window;
+            this.file = new RandomAccessFile(file, "rw");
+            this.file.setLength(0);
+            this.channel = this.file.getChannel();
+            this.position = HEADER;
+            File dir = file.getAbsoluteFile().getParentFile();
+            this.siteOffsets = new Spill(dir);
+            this.siteBytes = new Spill(dir);
+            this.termOffsets = new Spill(dir);
+            this.termBytes = new Spill(dir);
+            this.listOffsets = new Spill(dir);
+        }
+
+        /**
+         * Add the next term.
+         *
+         * @param term UTF-8 bytes of the term.
+         * @param postings Its posting list.
+         * @throws IOException If writing fails.
+         * @throws IllegalArgumentException If term isn't after the last one,
+         *     or the encoded postings are longer than WINDOW.
+         */
+        public void add(byte[] term, PostingList postings) throws IOException {
+            if (this.last != null && ORDER.compare(this.last, term) >= 0) {
+                throw new IllegalArgumentException("terms out of order");
+            }
+            ByteBuffer b = postings.encoded();
+            long w = this.window;
+            if (b.remaining() > w) {
+                throw new IllegalArgumentException("posting list of " + b.remaining()
+                    + " bytes doesn't fit into a window of " + w);
+            }
+            this.last = term;
+
+            long offset = this.position - HEADER;
+            if (offset / w != (offset + b.remaining() - 1) / w) {
+                // Would straddle two windows, pad up to the next one.
+                offset = (offset / w + 1) * w;
+            }
+            this.position = HEADER + offset;
+            while (b.hasRemaining()) {
+                this.position += this.channel.write(b, this.position);
+            }
+
+            this.termOffsets.out.writeInt((int) this.termLength);
+            this.termBytes.out.write(term);
+            this.listOffsets.out.writeLong(offset);
+            this.termLength += term.length;
+            this.count++;
+        }
+
+        /**
+         * Add the next site.
+         *
+         * @param url Its URL.
+         * @throws IOException If writing fails.
+         */
+        public void site(String url) throws IOException {
+            byte[] b = url.getBytes(StandardCharsets.UTF_8);
+            this.siteOffsets.out.writeInt((int) this.siteLength);
+            this.siteBytes.out.write(b);
+            this.siteLength += b.length;
+            this.sites++;
+        }
+
+        /**
+         * Add sites, then write the tables and the header.
+         *
+         * @param sites URLs by site ID, after the ones already added.
+         * @throws IOException If writing fails.
+         */
+        public void finish(String[] sites) throws IOException {
+            for (String url : sites) {
+                this.site(url);
+            }
+            this.finish();
+        }
+
+        /**
+         * Write the site and term tables and the header.
+         *
+         * @throws IOException If writing fails, or the tables would
+         *     exceed 2GB.
+         */
+        public void finish() throws IOException {
+            long size = 4L * (this.sites + 1) + this.siteLength
+                + 4L * (this.count + 1) + this.termLength
+                + 8L * (this.count + 1);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("site and term tables exceed 2GB");
+            }
+            long tables = this.position;
+            this.siteOffsets.out.writeInt((int) this.siteLength);
+            this.termOffsets.out.writeInt((int) this.termLength);
+            this.listOffsets.out.writeLong(this.position - HEADER);
+            for (Spill table : new Spill[] {this.siteOffsets, this.siteBytes,
+                                            this.termOffsets, this.termBytes, this.listOffsets}) {
+                this.position = table.copyTo(this.channel, this.position);
+            }
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            h.putInt(MAGIC);
+            h.putInt(VERSION);
+            h.putInt(this.sites);
+            h.putInt(this.count);
+            h.putLong(tables);
+            h.flip();
+            while (h.hasRemaining()) {
+                this.channel.write(h, HEADER - h.remaining());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.channel.close();
+                this.file.close();
+            } finally {
+                for (Spill table : new Spill[] {this.siteOffsets, this.siteBytes,
+                                                this.termOffsets, this.termBytes, this.listOffsets}) {
+                    table.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class IndexFileTest {
+
+    private static MemoryIndex index(String crawl) {
+        MemoryIndex.Builder b = new MemoryIndex.Builder();
+        b.read(ByteBuffer.wrap(crawl.getBytes(StandardCharsets.UTF_8)));
+        return b.build();
+    }
+
+    // Sites with a few of words w0 to w(words - 1) each, some repeated.
+    private static MemoryIndex random(Random r, int sites, int words) {
+        StringBuilder crawl = new StringBuilder();
+        for (int s = 0; s < sites; s++) {
+            crawl.append("http://s").append(s).append(".com/");
+            for (int w = r.nextInt(6); w >= 0; w--) {
+                crawl.append(" w").append(r.nextInt(words));
+            }
+            crawl.append('\n');
+        }
+        return index(crawl.toString());
+    }
+
+    private static void assertSameIndex(MemoryIndex expected, MappedIndex actual) {
+        assertEquals(expected.numSites(), actual.numSites());
+        assertEquals(expected.numTerms(), actual.numTerms());
+        for (int d = 0; d < expected.numSites(); d++) {
+            assertEquals(expected.site(d), actual.site(d));
+        }
+        for (int t = 0; t < expected.numTerms(); t++) {
+            String word = expected.terms().term(t);
+            PostingList.Cursor e = expected.postings(t).cursor();
+            PostingList.Cursor a = actual.postings(word).cursor();
+            for (int d = e.next(); d != PostingList.Cursor.END; d = e.next()) {
+                assertEquals(d, a.next());
+                assertEquals(e.tf(), a.tf());
+            }
+            assertEquals(PostingList.Cursor.END, a.next());
+        }
+        assertEquals(0, actual.postings("nowhere").size());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        MemoryIndex index = random(new Random(1), 2000, 300);
+        File f = File.createTempFile("index", ".idx");
+        try {
+            IndexFile.write(index, f);
+            assertSameIndex(index, IndexFile.load(f));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void nonAsciiAndEmpty() throws IOException {
+        File f = File.createTempFile("index", ".idx");
+        try {
+            MemoryIndex index = index("http://a.com/ caf\u00e9 na\u00efve\nhttp://b.com/ caf\u00e9\n");
+            IndexFile.write(index, f);
+            assertSameIndex(index, IndexFile.load(f));
+            assertArrayEquals(new int[] {0, 1}, IndexFile.load(f).postings("caf\u00e9").toArray());
+            IndexFile.write(index(""), f);
+            assertEquals(0, IndexFile.load(f).numSites());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void listsDontCrossWindows() throws IOException {
+        // Lists of up to 20 sites take up to 56 bytes, so with a window
+        // of 64 most of them need padding and there are many windows.
+        MemoryIndex index = random(new Random(2), 400, 150);
+        File f = File.createTempFile("index", ".idx");
+        try {
+            IndexFile.write(index, f, 64);
+            assertSameIndex(index, MappedIndex.open(f, 64));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void listsLongerThanAWindowAreRejected() throws IOException {
+        PostingList.Builder b = new PostingList.Builder();
+        for (int d = 0; d < 100; d++) {
+            b.add(d);
+        }
+        File f = File.createTempFile("index", ".idx");
+        try (IndexFile.Writer w = new IndexFile.Writer(f, 64)) {
+            w.add(new byte[] {'a'}, PostingList.EMPTY);
+            try {
+                w.add(new byte[] {'b'}, b.build());
+                fail("list longer than the window");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            // The writer is still usable.
+            w.add(new byte[] {'b'}, PostingList.EMPTY);
+            w.finish(new String[0]);
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void recentDenseListsAreKept() throws IOException {
+        // Every site has all the words, so every list is dense.
+        int words = MappedIndex.DENSE_LISTS + 1;
+        StringBuilder crawl = new StringBuilder();
+        for (int s = 0; s < PostingList.MIN_DENSE; s++) {
+            crawl.append("http://s").append(s).append(".com/");
+            for (int w = 0; w < words; w++) {
+                crawl.append(" w").append(w);
+            }
+            crawl.append('\n');
+        }
+        File f = File.createTempFile("index", ".idx");
+        try {
+            IndexFile.write(index(crawl.toString()), f);
+            MappedIndex index = IndexFile.load(f);
+            PostingList first = index.postings("w0");
+            assertEquals(true, first.isDense());
+            assertSame(first, index.postings("w0"));
+            for (int w = 1; w < words; w++) {
+                assertSame(index.postings("w" + w), index.postings("w" + w));
+            }
+            // w0 was the least recently used, so it was dropped.
+            assertEquals(false, first == index.postings("w0"));
+            assertEquals(PostingList.MIN_DENSE, index.postings("w0").size());
+        } finally {
+            f.delete();
+        }
+    }
+}
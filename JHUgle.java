@@ -1,63 +1,139 @@
-import java.util.ArrayList;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.FileReader;
-import java.util.regex.Pattern;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Deque;
 import java.util.ArrayDeque;
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.Scanner;
 
 public final class JHUgle {
 
-    private JHUgle() {}
+    // Results '?' prints unless we're given "-top <n>".
+    private static final int TOP = 10;
 
-    public static void main(String[] args) throws IOException {
-        Map<String, ArrayList<String>> map = new HashMap<>();
-        Deque<ArrayList<String>> stack = new ArrayDeque<ArrayList<String>>();
+    // Bounds for the query result cache.
+    private static final int CACHE_ENTRIES = 1024;
+    private static final long CACHE_BYTES = 64L << 20;
 
-        Pattern pattern = Pattern.compile("\\s+");
+    private JHUgle() {}
 
-        FileReader fr = null;
-        BufferedReader reader = null;
+    // Build the index from the crawl file, or load it from an index
+    // file if we're given "-load <index>". With "-save <index>" the
+    // index is built and also written out for later runs, with
+    // "-threads <n>" it is built by n threads in parallel. With
+    // "-budget <MB>" it is built in runs of about that size that are
+    // merged on disk, for crawls whose index doesn't fit in memory; the
+    // result is written to the -save file (or a temporary one) and
+    // mapped.
+    private static Index open(String[] args) {
         try {
-            String FILENAME = args[0];
-            fr = new FileReader(FILENAME);
-            reader = new BufferedReader(fr);
+            String load = null;
+            String save = null;
+            String crawl = null;
+            int threads = 1;
+            long budget = 0;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-load")) {
+                    load = args[++i];
+                } else if (args[i].equals("-save")) {
+                    save = args[++i];
+                } else if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-budget")) {
+                    budget = Long.parseLong(args[++i]) << 20;
+                } else if (args[i].equals("-batch") || args[i].equals("-serve")
+                           || args[i].equals("-top")) {
+                    i++;
+                } else {
+                    crawl = args[i];
+                }
+            }
+            if (load != null) {
+                return IndexFile.load(new File(load));
+            }
+            if (budget > 0) {
+                File out;
+                if (save != null) {
+                    out = new File(save);
+                } else {
+                    out = File.createTempFile("jhugle", ".idx");
+                    out.deleteOnExit();
+                }
+                return ExternalIndexBuilder.build(new File(crawl), out, budget);
+            }
+            MemoryIndex index;
+            if (threads > 1) {
+                index = ParallelIndexBuilder.build(new File(crawl), threads);
+            } else {
+                index = MemoryIndex.build(new File(crawl));
+            }
+            if (save != null) {
+                IndexFile.write(index, new File(save));
+            }
+            return index;
         } catch (Exception e) {
             System.err.println("Invalid Input File.");
             System.exit(0);
+            return null;
         }
+    }
 
-        String line;
-        String lastSite = "";
-        while ((line = reader.readLine()) != null) {
-            String[] words = pattern.split(line);
-            if (words[0].length() == 0) {
-                continue;
+    // Value following the given flag, null if the flag isn't there.
+    private static String option(String[] args, String flag) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(flag)) {
+                return args[i + 1];
             }
-            for (String word: words) {
-                try { 
-                    if (word.charAt(6) == '/') {
-                        //code for what to do with websites:
-                        lastSite = word;
-                        continue;
-                    }
-                } catch (StringIndexOutOfBoundsException e) {
+        }
+        return null;
+    }
 
-                }
-                //code for what to do with words:
-                if (!map.has(word)) {
-                    ArrayList<String> newList = new ArrayList<String>();
-                    newList.add(lastSite);
-                    map.insert(word, new ArrayList<String>(newList));
-                } else {
-                    map.get(word).add(lastSite);
-                }
+    // Run every query in the file with "-threads <n>" workers (default
+    // one per core), results on standard output, timings on standard
+    // error.
+    private static void batch(Index index, String file, String threads,
+                              QueryCache cache) throws IOException {
+        int n = threads == null
+            ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+            false, "UTF-8");
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            BatchRunner.Stats stats = BatchRunner.run(index, in, out, n, cache);
+            System.err.println(stats);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Index index = open(args);
+        QueryCache cache = new QueryCache(CACHE_ENTRIES, CACHE_BYTES);
+        String batch = option(args, "-batch");
+        if (batch != null) {
+            batch(index, batch, option(args, "-threads"), cache);
+            return;
+        }
+        String serve = option(args, "-serve");
+        if (serve != null) {
+            try (QueryServer server = new QueryServer(index, cache, Integer.parseInt(serve))) {
+                System.out.println("Listening on port " + server.port());
+                server.serve();
             }
+            return;
         }
-        reader.close();
-        fr.close();
+        String top = option(args, "-top");
+        int k = top == null ? TOP : Integer.parseInt(top);
+        Deque<Query> stack = new ArrayDeque<Query>();
+        // ":add <crawl>" adds the sites in a crawl file, ":del <url>"
+        // deletes a site; words already on the stack would still see the
+        // old sites, so a change clears the stack (and the cache). The
+        // index only becomes a SegmentedIndex on the first change.
+        SegmentedIndex live = null;
 
         Scanner scan = new Scanner(System.in);
         System.out.println("Index Created");
@@ -70,61 +146,58 @@ public final class JHUgle {
                 if (stack.isEmpty()) {
                     continue;
                 }
-                for (int i = 0; i < stack.peek().size(); i++) {
-                    System.out.println(stack.peek().get(i));
+                if (k > 0) {
+                    for (TopK.Hit hit : TopK.search(stack.peek(), index, k)) {
+                        System.out.println(index.site(hit.doc()));
+                    }
+                } else {
+                    // "-top 0": everything, in site order.
+                    PostingList.Cursor c = stack.peek().evaluate(cache).cursor();
+                    for (int d = c.next(); d != PostingList.Cursor.END; d = c.next()) {
+                        System.out.println(index.site(d));
+                    }
                 }
 	    
             } else if (command.equals("&&")) {
-                ArrayList<String> firstOut = null;
-                ArrayList<String> secondOut = null;
-                try {
-                    firstOut = stack.pop();
-		} catch (java.util.NoSuchElementException e) {
+                if (stack.isEmpty()) {
                     System.err.println("Not enough elements on stack to AND: 0 elements");
-		}
-		try {
-                    secondOut =stack.pop();
-		    firstOut.retainAll(secondOut);
-		    stack.push(firstOut);
-		} catch (java.util.NoSuchElementException e) {
-		    stack.push(firstOut);
+                } else if (stack.size() == 1) {
                     System.err.println("Not enough elements on stack to AND: 1 element");
-		}
+                } else {
+                    stack.push(Query.and(stack.pop(), stack.pop()));
+                }
             } else if (command.equals("||")) {
-                ArrayList<String> firstOut = null;
-                ArrayList<String> secondOut = null;
-                try {
-                    firstOut = stack.pop();
-		} catch (java.util.NoSuchElementException e) {
+                if (stack.isEmpty()) {
                     System.err.println("Not enough elements on stack to OR: 0 elements");
-		}
-		try {
-                    secondOut = stack.pop();
-		    int size1 = firstOut.size();
-		    int size2 = secondOut.size();
-		    for (int i = 0; i < size2; i++) {
-                        boolean toAdd = true;
-			for (int j = 0; j < size1; j++) {
-                            if (secondOut.get(i).equals(firstOut.get(j))) {
-                                toAdd = false;
-				break;
-			    }
-			}
-			if (toAdd) {
-                            firstOut.add(secondOut.get(i));
-			}
-		    }
-		    stack.push(firstOut);
-		} catch (java.util.NoSuchElementException e) {
-                    stack.push(firstOut);
-		    System.err.println("Not enough elements on stack to OR: 1 element");
-		}          
+                } else if (stack.size() == 1) {
+                    System.err.println("Not enough elements on stack to OR: 1 element");
+                } else {
+                    stack.push(Query.or(stack.pop(), stack.pop()));
+                }
+            } else if (command.equals(":add") || command.equals(":del")) {
+                if (live == null) {
+                    live = new SegmentedIndex(index);
+                    index = live;
+                }
+                if (command.equals(":add")) {
+                    try {
+                        int n = live.add(new File(scan.next()));
+                        cache.invalidate();
+                        stack.clear();
+                        System.out.println("Added " + n + " sites");
+                    } catch (IOException e) {
+                        System.err.println("Invalid Input File.");
+                    }
+                } else {
+                    int n = live.delete(scan.next());
+                    cache.invalidate();
+                    stack.clear();
+                    System.out.println("Deleted " + n + " sites");
+                }
+            } else if (Query.isPrefix(command)) {
+                stack.push(Query.prefix(command.substring(0, command.length() - 1), index));
 	    } else {
-	        try {
-                    stack.push(new ArrayList<String>(map.get(command)));
-	        } catch (IllegalArgumentException e) {
-                    stack.push(new ArrayList<String>());
-	        }
+                stack.push(index.term(command));
 	    }
 	}
     }
@@ -1,3 +1,8 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
 /**
  * Maps from arbitrary keys to arbitrary values.
  *
@@ -64,4 +69,80 @@ public interface Map<K, V> extends Iterable<K> {
      * @return Number of key/value pairs in the map.
      */
     int size();
+
+    /**
+     * Get the value associated with a key, inserting one first if the
+     * key is not mapped yet.
+     *
+     * The default implementation looks the key up twice (or three times
+     * if it has to insert); implementations should do it in one go.
+     *
+     * @param k The key.
+     * @param f Makes the value for k if there isn't one; called at most
+     *     once, and must not change the map.
+     * @return The value now associated with k.
+     * @throws IllegalArgumentException If k is null.
+     */
+    default V computeIfAbsent(K k, Function<? super K, ? extends V> f)
+        throws IllegalArgumentException {
+        if (this.has(k)) {
+            return this.get(k);
+        }
+        V v = f.apply(k);
+        this.insert(k, v);
+        return v;
+    }
+
+    /**
+     * Insert a new key/value pair, or combine the value with the one
+     * already associated with the key.
+     *
+     * The default implementation looks the key up twice; implementations
+     * should do it in one go.
+     *
+     * @param k The key.
+     * @param v The value to insert or combine.
+     * @param f Combines the old value and v into the new value; must not
+     *     change the map.
+     * @return The value now associated with k.
+     * @throws IllegalArgumentException If k is null.
+     */
+    default V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f)
+        throws IllegalArgumentException {
+        if (this.has(k)) {
+            V merged = f.apply(this.get(k), v);
+            this.put(k, merged);
+            return merged;
+        }
+        this.insert(k, v);
+        return v;
+    }
+
+    /**
+     * Insert all key/value pairs of another map.
+     *
+     * @param other The map to copy from; must not be this map.
+     * @throws IllegalArgumentException If a key is already mapped; the
+     *     keys other returned before it stay inserted.
+     */
+    default void insertAll(Map<K, V> other) throws IllegalArgumentException {
+        for (K k : other) {
+            this.insert(k, other.get(k));
+        }
+    }
+
+    /**
+     * Get the values associated with many keys.
+     *
+     * @param keys The keys.
+     * @return The values, in the order of the keys.
+     * @throws IllegalArgumentException If a key is null or not mapped.
+     */
+    default List<V> getAll(Iterable<? extends K> keys) throws IllegalArgumentException {
+        List<V> values = new ArrayList<V>();
+        for (K k : keys) {
+            values.add(this.get(k));
+        }
+        return values;
+    }
 }
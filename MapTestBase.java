@@ -1,6 +1,7 @@
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
 import java.util.Iterator;
 
 //Matthew MacFarquhar mmacfar2 mmacfar2@jhu.edu
@@ -170,4 +171,109 @@ public abstract class MapTestBase {
         m.insert(KEY_ONE, VAL_ONE);
 	m.insert(KEY_ONE, VAL_TWO);
     }
+
+    @Test (expected=java.util.ConcurrentModificationException.class)
+    public void iteratorFailsFast() {
+        m.insert(KEY_ONE, VAL_ONE);
+        m.insert(KEY_TWO, VAL_TWO);
+        Iterator<String> iter = m.iterator();
+        iter.next();
+        m.insert(KEY_THREE, VAL_THREE);
+        iter.next();
+    }
+
+    @Test
+    public void iteratorSeesEveryKeyOnce() {
+        m.insert(KEY_ONE, VAL_ONE);
+        m.insert(KEY_TWO, VAL_TWO);
+        m.insert(KEY_THREE, VAL_THREE);
+        m.remove(KEY_TWO);
+        int count = 0;
+        for (String k : m) {
+            assertEquals(true, m.has(k));
+            count++;
+        }
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void computeIfAbsentInsertsOnce() {
+        int[] calls = new int[1];
+        assertEquals(VAL_ONE, m.computeIfAbsent(KEY_ONE, k -> { calls[0]++; return VAL_ONE; }));
+        assertEquals(VAL_ONE, m.computeIfAbsent(KEY_ONE, k -> { calls[0]++; return VAL_TWO; }));
+        assertEquals(1, calls[0]);
+        assertEquals(1, m.size());
+        assertEquals(VAL_ONE, m.get(KEY_ONE));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void computeIfAbsentNullKey() {
+        m.computeIfAbsent(null, k -> VAL_ONE);
+    }
+
+    @Test
+    public void mergeInsertsThenCombines() {
+        for (int i = 0; i < 100; i++) {
+            m.merge("key" + (i % 10), 1, Integer::sum);
+        }
+        assertEquals(10, m.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(10), m.get("key" + i));
+        }
+    }
+
+    @Test
+    public void insertAllFromOrderedMap() {
+        Map<String, Integer> other = new BinarySearchTreeMap<String, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            other.insert("key" + i, i);
+        }
+        m.insertAll(other);
+        assertEquals(1000, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), m.get("key" + i));
+        }
+        m.remove("key500");
+        m.insert("key500", 500);
+        assertEquals(1000, m.size());
+    }
+
+    @Test
+    public void insertAllFromHashMap() {
+        m.insert(KEY_ONE, VAL_ONE);
+        Map<String, Integer> other = new HashMap<String, Integer>(true);
+        for (int i = 0; i < 1000; i++) {
+            other.insert("key" + i, i);
+        }
+        m.insertAll(other);
+        assertEquals(1001, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), m.get("key" + i));
+        }
+        assertEquals(VAL_ONE, m.get(KEY_ONE));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void insertAllDuplicate() {
+        m.insert(KEY_TWO, VAL_ONE);
+        Map<String, Integer> other = new BinarySearchTreeMap<String, Integer>();
+        other.insert(KEY_ONE, VAL_ONE);
+        other.insert(KEY_TWO, VAL_TWO);
+        m.insertAll(other);
+    }
+
+    @Test
+    public void getAllInOrder() {
+        m.insert(KEY_ONE, VAL_ONE);
+        m.insert(KEY_TWO, VAL_TWO);
+        m.insert(KEY_THREE, VAL_THREE);
+        assertEquals(Arrays.asList(VAL_THREE, VAL_ONE, VAL_THREE),
+            m.getAll(Arrays.asList(KEY_THREE, KEY_ONE, KEY_THREE)));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void getAllMissing() {
+        m.insert(KEY_ONE, VAL_ONE);
+        m.getAll(Arrays.asList(KEY_ONE, KEY_TWO));
+    }
 }
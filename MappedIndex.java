@@ -0,0 +1,247 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Index read straight out of a memory-mapped IndexFile.
+ *
+ * Opening one only maps the file; nothing is decoded until a query asks
+ * for it. Words are found by binary search over the sorted term table
+ * and posting lists are handed out as slices of the mapping, so an
+ * index much larger than the heap works fine as long as the parts that
+ * are actually queried fit into the page cache.
+ *
+ * The one thing we keep are the posting lists of the DENSE_LISTS most
+ * recently used dense terms, so their bitmaps (see PostingList.bitmap())
+ * aren't made again for every query.
+ */
+public class MappedIndex implements Index {
+
+    private final int numSites;
+    private final int numTerms;
+    private final ByteBuffer tables;
+    private final ByteBuffer[] windows;
+    private final long window;
+
+    // Start of each table inside the tables buffer.
+    private final int siteBytes;
+    private final int termOffsets;
+    private final int termBytes;
+    private final int listOffsets;
+
+    /** Number of dense posting lists kept, with their bitmaps. */
+    static final int DENSE_LISTS = 64;
+
+    // Term ID -> posting list, for dense lists only. In access order, so
+    // the first entry is the least recently used.
+    private final LinkedHashMap<Integer, PostingList> dense =
+        new LinkedHashMap<Integer, PostingList>(16, 0.75f, true);
+
+    private MappedIndex(int numSites, int numTerms, ByteBuffer tables,
+                        ByteBuffer[] windows, long window) {
+        this.window = window;
+        this.numSites = numSites;
+        this.numTerms = numTerms;
+        this.tables = tables;
+        this.windows = windows;
+        this.siteBytes = 4 * (numSites + 1);
+        this.termOffsets = this.siteBytes + tables.getInt(4 * numSites);
+        this.termBytes = this.termOffsets + 4 * (numTerms + 1);
+        this.listOffsets = this.termBytes + tables.getInt(this.termOffsets + 4 * numTerms);
+    }
+
+    /**
+     * Map an index file.
+     *
+     * @param file The file written by IndexFile.
+     * @return The index.
+     * @throws IOException If the file can't be mapped or isn't an index.
+     */
+    public static MappedIndex open(File file) throws IOException {
+        return open(file, IndexFile.WINDOW);
+    }
+
+    // Map a file written with a different window size.
+    static MappedIndex open(File file, long window) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < IndexFile.HEADER) {
+                throw new IOException("not an index file: " + file);
+            }
+            ByteBuffer h = channel.map(FileChannel.MapMode.READ_ONLY, 0, IndexFile.HEADER);
+            if (h.getInt(0) != IndexFile.MAGIC || h.getInt(4) != IndexFile.VERSION) {
+                throw new IOException("not an index file: " + file);
+            }
+            int sites = h.getInt(8);
+            int terms = h.getInt(12);
+            long tables = h.getLong(16);
+            if (tables < IndexFile.HEADER || tables > length
+                    || length - tables > Integer.MAX_VALUE) {
+                throw new IOException("corrupt index file: " + file);
+            }
+
+            // The mappings stay valid after the channel is closed.
+            long postings = tables - IndexFile.HEADER;
+            int n = (int) ((postings + window - 1) / window);
+            ByteBuffer[] windows = new ByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = i * window;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    IndexFile.HEADER + start, Math.min(window, postings - start));
+            }
+            ByteBuffer t = channel.map(FileChannel.MapMode.READ_ONLY, tables, length - tables);
+            return new MappedIndex(sites, terms, t, windows, window);
+        }
+    }
+
+    // Compare term i in the file to the given UTF-8 bytes.
+    private int compare(int i, byte[] term) {
+        int start = this.termBytes + this.tables.getInt(this.termOffsets + 4 * i);
+        int end = this.termBytes + this.tables.getInt(this.termOffsets + 4 * i + 4);
+        int n = Math.min(end - start, term.length);
+        for (int j = 0; j < n; j++) {
+            int cmp = Byte.toUnsignedInt(this.tables.get(start + j))
+                - Byte.toUnsignedInt(term[j]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return (end - start) - term.length;
+    }
+
+    // Index of the given term in the term table, or -(insertion point + 1)
+    // if it isn't there, just like Arrays.binarySearch.
+    int find(byte[] term) {
+        int lo = 0;
+        int hi = this.numTerms - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = this.compare(mid, term);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    // Does term i in the file start with the given UTF-8 bytes?
+    private boolean startsWith(int i, byte[] prefix) {
+        int start = this.termBytes + this.tables.getInt(this.termOffsets + 4 * i);
+        int end = this.termBytes + this.tables.getInt(this.termOffsets + 4 * i + 4);
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length; j++) {
+            if (this.tables.get(start + j) != prefix[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // UTF-8 bytes of term i in the term table.
+    byte[] bytes(int i) {
+        int start = this.termBytes + this.tables.getInt(this.termOffsets + 4 * i);
+        int end = this.termBytes + this.tables.getInt(this.termOffsets + 4 * i + 4);
+        byte[] b = new byte[end - start];
+        this.tables.get(start, b);
+        return b;
+    }
+
+    // Term i in the term table.
+    private String term(int i) {
+        return new String(this.bytes(i), StandardCharsets.UTF_8);
+    }
+
+    // Posting list of term i in the term table.
+    PostingList postings(int i) {
+        long start = this.tables.getLong(this.listOffsets + 8 * i);
+        long end = this.tables.getLong(this.listOffsets + 8 * i + 8);
+        // Padding at a window boundary belongs to the previous list but
+        // isn't part of it; the list's own header knows its real length.
+        ByteBuffer w = this.windows[(int) (start / this.window)];
+        int offset = (int) (start % this.window);
+        int length = (int) Math.min(end - start, w.limit() - offset);
+        return PostingList.wrap(w.slice(offset, length));
+    }
+
+    @Override
+    public PostingList postings(String term) {
+        if (term == null) {
+            return PostingList.EMPTY;
+        }
+        int i = this.find(term.getBytes(StandardCharsets.UTF_8));
+        if (i < 0) {
+            return PostingList.EMPTY;
+        }
+        PostingList p = this.postings(i);
+        return p.isDense() ? this.dense(i, p) : p;
+    }
+
+    // The kept list of dense term i, keeping p if there is none.
+    private PostingList dense(int i, PostingList p) {
+        synchronized (this.dense) {
+            PostingList kept = this.dense.get(i);
+            if (kept != null) {
+                return kept;
+            }
+            this.dense.put(i, p);
+            if (this.dense.size() > DENSE_LISTS) {
+                Iterator<PostingList> lru = this.dense.values().iterator();
+                lru.next();
+                lru.remove();
+            }
+            return p;
+        }
+    }
+
+    // The term table is sorted, so the words with the prefix are the
+    // ones from where the prefix would go on.
+    @Override
+    public List<String> terms(String prefix) {
+        byte[] p = prefix.getBytes(StandardCharsets.UTF_8);
+        int i = this.find(p);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        List<String> words = new ArrayList<String>();
+        for (; i < this.numTerms && this.startsWith(i, p); i++) {
+            words.add(this.term(i));
+        }
+        return words;
+    }
+
+    @Override
+    public String site(int doc) {
+        if (doc < 0 || doc >= this.numSites) {
+            throw new IllegalArgumentException("no site with id " + doc);
+        }
+        int start = this.siteBytes + this.tables.getInt(4 * doc);
+        int end = this.siteBytes + this.tables.getInt(4 * doc + 4);
+        byte[] b = new byte[end - start];
+        this.tables.get(start, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int numSites() {
+        return this.numSites;
+    }
+
+    @Override
+    public int numTerms() {
+        return this.numTerms;
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index built in memory from a crawl file.
+ *
+ * The input is a sequence of whitespace separated tokens; a URL token
+ * (one with a '/' at position 6, as in "http://" and "https:/") starts a
+ * new site and every other token is a word on the most recent site.
+ * Sites are numbered in input order, starting from 0, but only once the
+ * first word shows up on them; a URL without any words doesn't get an ID.
+ */
+public class MemoryIndex implements Index {
+
+    private final TermDictionary terms;
+    private final ArrayList<String> sites;
+    private final PostingList[] postings;
+    // Word IDs in order of their bytes, for terms(); sorted on first use
+    // (racing threads sort the same thing).
+    private volatile int[] sorted;
+
+    MemoryIndex(TermDictionary terms, ArrayList<String> sites,
+                PostingList[] postings) {
+        this.terms = terms;
+        this.sites = sites;
+        this.postings = postings;
+    }
+
+    /**
+     * Read a crawl file and index it.
+     *
+     * @param file The crawl file.
+     * @return The index.
+     * @throws IOException If reading fails.
+     */
+    public static MemoryIndex build(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            Builder b = new Builder();
+            b.read(raf.getChannel(), 0, raf.length());
+            return b.build();
+        }
+    }
+
+    /**
+     * Collects words and sites into a new index.
+     */
+    static final class Builder {
+        // Crawl files are mapped piece by piece, at most this many bytes
+        // at a time (plus the rest of the line we end up in).
+        private static final long CHUNK = 1L << 28;
+
+        // Words are turned into dense IDs as we read them; the postings
+        // for word i are the IDs of the sites it appears on. Sites get
+        // their IDs in input order, so each posting list is built in
+        // ascending order and repeats on one site collapse.
+        private final TermDictionary terms = new TermDictionary();
+        private final ArrayList<String> sites = new ArrayList<String>();
+        private final ArrayList<PostingList.Builder> builders =
+            new ArrayList<PostingList.Builder>();
+        private String lastSite = "";
+        private int doc = -1;
+
+        // Add the bytes from start to end of the channel, which should
+        // both be at the start of a line (or the end of the file).
+        void read(FileChannel channel, long start, long end) throws IOException {
+            while (start < end) {
+                long size = Math.min(CHUNK, end - start);
+                MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                if (start + size < end) {
+                    // Back up to the last line break so no line is split.
+                    int n = (int) size;
+                    while (n > 0 && b.get(n - 1) != '\n') {
+                        n--;
+                    }
+                    if (n == 0) {
+                        // One huge line; map it all (up to 2GB) instead.
+                        size = Math.min(Integer.MAX_VALUE, end - start);
+                        b = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                        n = (int) size;
+                    }
+                    b.limit(n);
+                    size = n;
+                }
+                this.read(b);
+                start += size;
+            }
+        }
+
+        // Add all tokens in the given buffer.
+        void read(ByteBuffer buffer) {
+            Tokenizer t = new Tokenizer(buffer);
+            while (t.next()) {
+                if (t.isUrl()) {
+                    //code for what to do with websites:
+                    this.lastSite = t.text();
+                    this.doc = -1;
+                    continue;
+                }
+                //code for what to do with words:
+                if (this.doc == -1) {
+                    this.doc = this.sites.size();
+                    this.sites.add(this.lastSite);
+                }
+                int id = this.terms.id(buffer, t.start(), t.length());
+                if (id == this.builders.size()) {
+                    this.builders.add(new PostingList.Builder());
+                }
+                this.builders.get(id).add(this.doc);
+            }
+        }
+
+        // Rough number of bytes held so far: postings, words and URLs,
+        // with a guess for the per-object overhead.
+        long sizeInBytes() {
+            long n = this.terms.sizeInBytes();
+            for (PostingList.Builder b : this.builders) {
+                n += 64 + b.sizeInBytes();
+            }
+            for (String site : this.sites) {
+                n += 48 + site.length();
+            }
+            return n;
+        }
+
+        MemoryIndex build() {
+            PostingList[] postings = new PostingList[this.builders.size()];
+            for (int i = 0; i < postings.length; i++) {
+                postings[i] = this.builders.get(i).build();
+            }
+            this.builders.clear();
+            return new MemoryIndex(this.terms, this.sites, postings);
+        }
+    }
+
+    /**
+     * The words of this index.
+     *
+     * @return Dictionary mapping words to the IDs used by postings(int).
+     */
+    public TermDictionary terms() {
+        return this.terms;
+    }
+
+    /**
+     * Sites of a word, by word ID.
+     *
+     * @param term The word ID.
+     * @return Posting list of site IDs.
+     */
+    public PostingList postings(int term) {
+        return this.postings[term];
+    }
+
+    @Override
+    public PostingList postings(String term) {
+        int id = this.terms.lookup(term);
+        if (id == TermDictionary.NONE) {
+            return PostingList.EMPTY;
+        }
+        return this.postings[id];
+    }
+
+    @Override
+    public List<String> terms(String prefix) {
+        int[] s = this.sorted;
+        if (s == null) {
+            s = this.terms.sorted();
+            this.sorted = s;
+        }
+        byte[] p = prefix.getBytes(StandardCharsets.UTF_8);
+        // First word >= prefix; the words with the prefix follow it.
+        int lo = 0;
+        int hi = s.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.terms.compare(s[mid], p) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> words = new ArrayList<String>();
+        for (int i = lo; i < s.length && this.terms.startsWith(s[i], p); i++) {
+            words.add(this.terms.term(s[i]));
+        }
+        return words;
+    }
+
+    @Override
+    public String site(int doc) {
+        if (doc < 0 || doc >= this.sites.size()) {
+            throw new IllegalArgumentException("no site with id " + doc);
+        }
+        return this.sites.get(doc);
+    }
+
+    @Override
+    public int numSites() {
+        return this.sites.size();
+    }
+
+    @Override
+    public int numTerms() {
+        return this.terms.size();
+    }
+}
@@ -0,0 +1,404 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Maps from strings to arbitrary values that keep their keys off the
+ * Java heap.
+ *
+ * HashMap needs a Node and a String (with its byte array) for every key,
+ * so a vocabulary of millions of words means tens of millions of small
+ * objects for the garbage collector to trace on every full collection.
+ * Here all of that lives in direct ByteBuffers, which the collector
+ * doesn't look into:
+ *
+ * - the table: open addressing with linear probing as in OpenHashMap,
+ *   8 bytes per slot holding the mixed hash of the key and its entry
+ *   number plus one (0 for an empty slot);
+ * - the entries: 8 bytes each, the address of the key (slab number in
+ *   the high half, offset in the low half), kept in slabs of ENTRY_SLAB
+ *   entries so the map can grow past what one buffer can hold;
+ * - the keys: UTF-8 bytes preceded by their length, appended to slabs of
+ *   KEY_SLAB bytes (a longer key gets a slab of its own).
+ *
+ * Values are Java objects, so they have to stay on the heap, but they
+ * are kept in a single array indexed by entry number: the heap holds a
+ * constant number of objects no matter how many keys there are (plus
+ * the values themselves). Lookups compare the hash stored in the slot
+ * first and the UTF-8 bytes of the key only if that matches, so keys are
+ * never decoded except by the iterator.
+ *
+ * Entries of removed keys are reused by the next insert; the bytes of
+ * removed keys are reclaimed by copying the live keys to new slabs once
+ * more than half of the key bytes are garbage. Buffers that are no longer
+ * used are freed when the garbage collector finds them unreachable.
+ *
+ * @param <V> Type for values.
+ */
+public class OffHeapHashMap<V> implements Map<String, V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Entries per entry slab. */
+    static final int ENTRY_SLAB = 1 << 16;
+
+    /** Bytes per key slab. */
+    static final int KEY_SLAB = 1 << 20;
+
+    private ByteBuffer table;
+    private int mask;
+    private final ArrayList<ByteBuffer> entries = new ArrayList<ByteBuffer>();
+    private ArrayList<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    // Where the next key goes in the last key slab.
+    private int keyEnd;
+    // Bytes of removed keys still taking up space in the key slabs.
+    private long garbage;
+    private long keyBytes;
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    // Entries ever used; removed ones form a free list through their
+    // address field, which then holds -(next free entry + 2).
+    private int used;
+    private int free = -1;
+    private int size;
+    private int modCount;
+
+    /**
+     * Create an empty map.
+     */
+    public OffHeapHashMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty map that can hold the given number of keys
+     * without growing its table.
+     *
+     * @param expected Number of keys expected.
+     */
+    public OffHeapHashMap(int expected) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 / 4 <= expected) {
+            capacity *= 2;
+        }
+        this.table = ByteBuffer.allocateDirect(capacity * 8);
+        this.mask = capacity - 1;
+    }
+
+    // Same mixing function as OpenHashMap.
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private int slotHash(int i) {
+        return this.table.getInt(i * 8);
+    }
+
+    // Entry in slot i, -1 if the slot is empty.
+    private int slotEntry(int i) {
+        return this.table.getInt(i * 8 + 4) - 1;
+    }
+
+    private void setSlot(int i, int hash, int entry) {
+        this.table.putInt(i * 8, hash);
+        this.table.putInt(i * 8 + 4, entry + 1);
+    }
+
+    private long address(int e) {
+        return this.entries.get(e / ENTRY_SLAB).getLong((e % ENTRY_SLAB) * 8);
+    }
+
+    private void setAddress(int e, long a) {
+        this.entries.get(e / ENTRY_SLAB).putLong((e % ENTRY_SLAB) * 8, a);
+    }
+
+    // Do the key bytes stored for entry e equal b?
+    private boolean matches(int e, byte[] b) {
+        long a = this.address(e);
+        ByteBuffer slab = this.keys.get((int) (a >>> 32));
+        int off = (int) a;
+        if (slab.getInt(off) != b.length) {
+            return false;
+        }
+        off += 4;
+        for (int i = 0; i < b.length; i++) {
+            if (slab.get(off + i) != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String key(int e) {
+        long a = this.address(e);
+        ByteBuffer slab = this.keys.get((int) (a >>> 32));
+        int off = (int) a;
+        byte[] b = new byte[slab.getInt(off)];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = slab.get(off + 4 + i);
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String k) {
+        if (k == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        return k.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Return the slot holding the key with the given bytes and hash, or
+    // the negative of (empty slot + 1) where it would have to go.
+    private int slot(byte[] b, int hash) {
+        int i = hash & this.mask;
+        int e;
+        while ((e = this.slotEntry(i)) >= 0) {
+            if (this.slotHash(i) == hash && this.matches(e, b)) {
+                return i;
+            }
+            i = (i + 1) & this.mask;
+        }
+        return -(i + 1);
+    }
+
+    // Return slot for given key, throw an exception if the key is not
+    // in the table.
+    private int slotForSure(String k) {
+        int i = this.slot(bytes(k), mix(k.hashCode()));
+        if (i < 0) {
+            throw new IllegalArgumentException("cannot find key " + k);
+        }
+        return i;
+    }
+
+    // Append a key to the key slabs and return its address.
+    private long store(byte[] b) {
+        int need = 4 + b.length;
+        if (this.keys.isEmpty() || this.keyEnd + need > this.keys.get(this.keys.size() - 1).capacity()) {
+            this.keys.add(ByteBuffer.allocateDirect(Math.max(KEY_SLAB, need)));
+            this.keyEnd = 0;
+        }
+        int s = this.keys.size() - 1;
+        ByteBuffer slab = this.keys.get(s);
+        slab.putInt(this.keyEnd, b.length);
+        for (int i = 0; i < b.length; i++) {
+            slab.put(this.keyEnd + 4 + i, b[i]);
+        }
+        long a = (long) s << 32 | this.keyEnd;
+        this.keyEnd += need;
+        this.keyBytes += need;
+        return a;
+    }
+
+    @Override
+    public void insert(String k, V v) {
+        byte[] b = bytes(k);
+        int hash = mix(k.hashCode());
+        int i = this.slot(b, hash);
+        if (i >= 0) {
+            throw new IllegalArgumentException("duplicate key " + k);
+        }
+        int e;
+        if (this.free >= 0) {
+            e = this.free;
+            this.free = (int) -this.address(e) - 2;
+        } else {
+            e = this.used++;
+            if (e % ENTRY_SLAB == 0) {
+                this.entries.add(ByteBuffer.allocateDirect(ENTRY_SLAB * 8));
+            }
+            if (e == this.values.length) {
+                this.values = Arrays.copyOf(this.values, e * 2);
+            }
+        }
+        this.setAddress(e, this.store(b));
+        this.values[e] = v;
+        this.setSlot(-i - 1, hash, e);
+        this.size++;
+        this.modCount++;
+        if (this.size * 4 >= (this.mask + 1) * 3) {
+            this.grow();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(String k) {
+        int i = this.slotForSure(k);
+        int e = this.slotEntry(i);
+        V v = (V) this.values[e];
+
+        // Backward-shift deletion as in OpenHashMap, using the stored
+        // hashes to find home slots.
+        int j = i;
+        while (true) {
+            j = (j + 1) & this.mask;
+            int cur = this.slotEntry(j);
+            if (cur < 0) {
+                break;
+            }
+            int hash = this.slotHash(j);
+            int home = hash & this.mask;
+            if (((j - home) & this.mask) >= ((j - i) & this.mask)) {
+                this.setSlot(i, hash, cur);
+                i = j;
+            }
+        }
+        this.setSlot(i, 0, -1);
+
+        long a = this.address(e);
+        this.garbage += 4 + this.keys.get((int) (a >>> 32)).getInt((int) a);
+        this.setAddress(e, -(long) this.free - 2);
+        this.free = e;
+        this.values[e] = null;
+        this.size--;
+        this.modCount++;
+        if (this.garbage > KEY_SLAB && this.garbage * 2 > this.keyBytes) {
+            this.compact();
+        }
+        return v;
+    }
+
+    @Override
+    public void put(String k, V v) {
+        this.values[this.slotEntry(this.slotForSure(k))] = v;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(String k) {
+        return (V) this.values[this.slotEntry(this.slotForSure(k))];
+    }
+
+    @Override
+    public boolean has(String k) {
+        if (k == null) {
+            return false;
+        }
+        return this.slot(bytes(k), mix(k.hashCode())) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Bytes allocated outside the heap, for the table, entries and keys.
+     *
+     * @return Total capacity of our direct buffers.
+     */
+    public long offHeapBytes() {
+        long n = this.table.capacity() + (long) this.entries.size() * ENTRY_SLAB * 8;
+        for (ByteBuffer slab : this.keys) {
+            n += slab.capacity();
+        }
+        return n;
+    }
+
+    // Double the capacity and move every slot to the new table. The
+    // hashes are stored, so we don't need to look at any keys.
+    private void grow() {
+        ByteBuffer old = this.table;
+        int capacity = (this.mask + 1) * 2;
+        this.table = ByteBuffer.allocateDirect(capacity * 8);
+        this.mask = capacity - 1;
+        for (int j = 0; j < capacity / 2; j++) {
+            int e = old.getInt(j * 8 + 4) - 1;
+            if (e >= 0) {
+                int hash = old.getInt(j * 8);
+                int i = hash & this.mask;
+                while (this.slotEntry(i) >= 0) {
+                    i = (i + 1) & this.mask;
+                }
+                this.setSlot(i, hash, e);
+            }
+        }
+    }
+
+    // Copy the live keys to new slabs, leaving the garbage behind.
+    // Entry numbers don't change, so the table stays as it is.
+    private void compact() {
+        ArrayList<ByteBuffer> old = this.keys;
+        this.keys = new ArrayList<ByteBuffer>();
+        this.keyBytes = 0;
+        this.garbage = 0;
+        for (int e = 0; e < this.used; e++) {
+            long a = this.address(e);
+            if (a >= 0) {
+                ByteBuffer slab = old.get((int) (a >>> 32));
+                int off = (int) a;
+                byte[] b = new byte[slab.getInt(off)];
+                for (int i = 0; i < b.length; i++) {
+                    b[i] = slab.get(off + 4 + i);
+                }
+                this.setAddress(e, this.store(b));
+            }
+        }
+    }
+
+    // Iterator that walks the entries in order, decoding each key as it
+    // goes; the map must not be changed while iterating (we fail fast if
+    // it is).
+    private class EntryIterator implements Iterator<String> {
+        private final int expected = OffHeapHashMap.this.modCount;
+        private int next = this.skip(0);
+
+        private int skip(int e) {
+            while (e < OffHeapHashMap.this.used && OffHeapHashMap.this.address(e) < 0) {
+                e++;
+            }
+            return e;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < OffHeapHashMap.this.used;
+        }
+
+        @Override
+        public String next() {
+            if (OffHeapHashMap.this.modCount != this.expected) {
+                throw new ConcurrentModificationException();
+            }
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String k = OffHeapHashMap.this.key(this.next);
+            this.next = this.skip(this.next + 1);
+            return k;
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new EntryIterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("{");
+        for (int e = 0; e < this.used; e++) {
+            if (this.address(e) >= 0) {
+                s.append(this.key(e));
+                s.append(": ");
+                s.append(this.values[e]);
+                s.append(", ");
+            }
+        }
+        if (s.length() > 1) {
+            s.setLength(s.length() - 2);
+        }
+        s.append("}");
+        return s.toString();
+    }
+}
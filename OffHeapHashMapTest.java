@@ -0,0 +1,75 @@
+//** Instantiate the OffHeapHashMap to test*/
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapHashMapTest extends MapTestBase {
+    @Override
+    protected Map<String, Integer> createMap() {
+        return new OffHeapHashMap<>();
+    }
+
+    @Test
+    public void growKeepsEverything() {
+        for (int i = 0; i < 100000; i++) {
+            m.insert("key" + i, i);
+        }
+        assertEquals(100000, m.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(Integer.valueOf(i), m.get("key" + i));
+        }
+    }
+
+    @Test
+    public void removeKeepsClusterReachable() {
+        for (int i = 0; i < 1000; i++) {
+            m.insert("key" + i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), m.remove("key" + i));
+        }
+        assertEquals(500, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, m.has("key" + i));
+        }
+    }
+
+    @Test
+    public void nonAsciiAndLongKeys() {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < OffHeapHashMap.KEY_SLAB; i++) {
+            big.append('x');
+        }
+        m.insert("h\u00e9llo w\u00f6rld", 1);
+        m.insert(big.toString(), 2);
+        m.insert("", 3);
+        assertEquals(Integer.valueOf(1), m.get("h\u00e9llo w\u00f6rld"));
+        assertEquals(Integer.valueOf(2), m.get(big.toString()));
+        assertEquals(Integer.valueOf(3), m.get(""));
+        assertEquals(false, m.has("hello world"));
+    }
+
+    @Test
+    public void removedSpaceIsReused() {
+        OffHeapHashMap<Integer> map = new OffHeapHashMap<>();
+        String pad = "0123456789012345678901234567890123456789";
+        for (int i = 0; i < 50000; i++) {
+            map.insert(pad + i, i);
+        }
+        long before = map.offHeapBytes();
+        // Churn through many times the key space of the live keys.
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50000; i++) {
+                assertEquals(Integer.valueOf(i), map.remove(pad + i));
+                map.insert(pad + i, i);
+            }
+        }
+        assertTrue(map.offHeapBytes() < 3 * before);
+        int count = 0;
+        for (String k : map) {
+            assertEquals(Integer.valueOf(Integer.parseInt(k.substring(pad.length()))), map.get(k));
+            count++;
+        }
+        assertEquals(50000, count);
+    }
+}
@@ -0,0 +1,242 @@
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Maps implemented as hash tables with open addressing.
+ *
+ * Unlike HashMap there are no Node objects: keys and values live in two
+ * parallel arrays and collisions are resolved by linear probing, so a
+ * lookup touches one or two cache lines and inserting allocates nothing
+ * (except when the table has to grow). The capacity is always a power of
+ * two which lets us replace "hashCode() % size" with a mask; to make that
+ * safe we first run the hash code through a mixing function so that all
+ * bits of the hash code influence the slot.
+ *
+ * Removal uses backward-shift deletion instead of tombstones: entries
+ * after the removed slot are moved back if that brings them closer to
+ * their home slot, so probe sequences never get longer over time.
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public class OpenHashMap<K, V> implements Map<K, V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Object[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int modCount;
+
+    /**
+     * Create an empty map.
+     */
+    public OpenHashMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty map that can hold the given number of keys
+     * without growing.
+     *
+     * @param expected Number of keys expected.
+     */
+    public OpenHashMap(int expected) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 / 4 <= expected) {
+            capacity *= 2;
+        }
+        this.keys = new Object[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    // Spread the hash code so that the low bits we mask off depend on
+    // all of its bits (this is the finalizer from MurmurHash3).
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // Return the slot holding the given key, or the negative of (empty
+    // slot + 1) where the key would have to go.
+    private int slot(Object k) {
+        if (k == null) {
+            throw new IllegalArgumentException("cannot handle null key");
+        }
+        int i = mix(k.hashCode()) & this.mask;
+        Object cur;
+        while ((cur = this.keys[i]) != null) {
+            if (cur.equals(k)) {
+                return i;
+            }
+            i = (i + 1) & this.mask;
+        }
+        return -(i + 1);
+    }
+
+    // Return slot for given key, throw an exception if the key is not
+    // in the table.
+    private int slotForSure(K k) {
+        int i = this.slot(k);
+        if (i < 0) {
+            throw new IllegalArgumentException("cannot find key " + k);
+        }
+        return i;
+    }
+
+    @Override
+    public void insert(K k, V v) {
+        int i = this.slot(k);
+        if (i >= 0) {
+            throw new IllegalArgumentException("duplicate key " + k);
+        }
+        i = -i - 1;
+        this.keys[i] = k;
+        this.values[i] = v;
+        this.size++;
+        this.modCount++;
+        if (this.size * 4 >= this.keys.length * 3) {
+            this.grow();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(K k) {
+        int i = this.slotForSure(k);
+        V v = (V) this.values[i];
+
+        // Walk the rest of the cluster; any entry whose home slot is not
+        // cyclically in (i, j] can be moved into the hole at i.
+        int j = i;
+        while (true) {
+            j = (j + 1) & this.mask;
+            Object cur = this.keys[j];
+            if (cur == null) {
+                break;
+            }
+            int home = mix(cur.hashCode()) & this.mask;
+            if (((j - home) & this.mask) >= ((j - i) & this.mask)) {
+                this.keys[i] = cur;
+                this.values[i] = this.values[j];
+                i = j;
+            }
+        }
+        this.keys[i] = null;
+        this.values[i] = null;
+        this.size--;
+        this.modCount++;
+        return v;
+    }
+
+    @Override
+    public void put(K k, V v) {
+        this.values[this.slotForSure(k)] = v;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K k) {
+        return (V) this.values[this.slotForSure(k)];
+    }
+
+    @Override
+    public boolean has(K k) {
+        if (k == null) {
+            return false;
+        }
+        return this.slot(k) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    // Double the capacity and move every entry to its slot in the new
+    // table. No need for equals() here since all keys are distinct.
+    private void grow() {
+        Object[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.keys = new Object[oldKeys.length * 2];
+        this.values = new Object[oldValues.length * 2];
+        this.mask = this.keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object k = oldKeys[j];
+            if (k != null) {
+                int i = mix(k.hashCode()) & this.mask;
+                while (this.keys[i] != null) {
+                    i = (i + 1) & this.mask;
+                }
+                this.keys[i] = k;
+                this.values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // Iterator that walks the key array directly; it does not copy
+    // anything, so the map must not be changed while iterating (we fail
+    // fast if it is).
+    private class SlotIterator implements Iterator<K> {
+        private final int expected = OpenHashMap.this.modCount;
+        private final Object[] table = OpenHashMap.this.keys;
+        private int next = this.skip(0);
+
+        private int skip(int i) {
+            while (i < this.table.length && this.table[i] == null) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.table.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K next() {
+            if (OpenHashMap.this.modCount != this.expected) {
+                throw new ConcurrentModificationException();
+            }
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            K k = (K) this.table[this.next];
+            this.next = this.skip(this.next + 1);
+            return k;
+        }
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+        return new SlotIterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("{");
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                s.append(this.keys[i]);
+                s.append(": ");
+                s.append(this.values[i]);
+                s.append(", ");
+            }
+        }
+        if (s.length() > 1) {
+            s.setLength(s.length() - 2);
+        }
+        s.append("}");
+        return s.toString();
+    }
+}
@@ -0,0 +1,50 @@
+//** Instantiate the OpenHashMap to test*/
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import java.util.HashSet;
+import java.util.Set;
+
+public class OpenHashMapTest extends MapTestBase {
+    @Override
+    protected Map<String, Integer> createMap() {
+        return new OpenHashMap<>();
+    }
+
+    @Test
+    public void iteratorSeesAllKeys() {
+        m.insert(KEY_ONE, VAL_ONE);
+        m.insert(KEY_TWO, VAL_TWO);
+        m.insert(KEY_THREE, VAL_THREE);
+        Set<String> seen = new HashSet<String>();
+        for (String k : m) {
+            seen.add(k);
+        }
+        assertEquals(3, seen.size());
+        assertEquals(true, seen.contains(KEY_TWO));
+    }
+
+    @Test
+    public void growKeepsEverything() {
+        for (int i = 0; i < 1000; i++) {
+            m.insert("key" + i, i);
+        }
+        assertEquals(1000, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), m.get("key" + i));
+        }
+    }
+
+    @Test
+    public void removeKeepsClusterReachable() {
+        for (int i = 0; i < 1000; i++) {
+            m.insert("key" + i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), m.remove("key" + i));
+        }
+        assertEquals(500, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, m.has("key" + i));
+        }
+    }
+}
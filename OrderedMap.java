@@ -0,0 +1,55 @@
+/**
+ * Maps whose keys have an order.
+ *
+ * On top of everything a Map does, an OrderedMap can find the smallest
+ * and largest keys, the keys closest to a given one, and iterate over the
+ * keys in a range. Iteration (both the whole map and ranges) is always
+ * in ascending key order.
+ *
+ * @param <K> Type for keys.
+ * @param <V> Type for values.
+ */
+public interface OrderedMap<K extends Comparable<? super K>, V>
+    extends Map<K, V> {
+    /**
+     * Smallest key.
+     *
+     * @return The smallest key, or null if the map is empty.
+     */
+    K first();
+
+    /**
+     * Largest key.
+     *
+     * @return The largest key, or null if the map is empty.
+     */
+    K last();
+
+    /**
+     * Largest key less than or equal to a given key.
+     *
+     * @param k The key.
+     * @return The largest mapped key <= k, or null if there is none.
+     * @throws IllegalArgumentException If k is null.
+     */
+    K floor(K k) throws IllegalArgumentException;
+
+    /**
+     * Smallest key greater than or equal to a given key.
+     *
+     * @param k The key.
+     * @return The smallest mapped key >= k, or null if there is none.
+     * @throws IllegalArgumentException If k is null.
+     */
+    K ceiling(K k) throws IllegalArgumentException;
+
+    /**
+     * Keys in a range, in ascending order.
+     *
+     * @param from Lower bound, inclusive.
+     * @param to Upper bound, exclusive.
+     * @return The mapped keys k with from <= k < to.
+     * @throws IllegalArgumentException If from or to is null.
+     */
+    Iterable<K> range(K from, K to) throws IllegalArgumentException;
+}
@@ -0,0 +1,218 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a MemoryIndex using several threads.
+ *
+ * The crawl file is cut into shards at lines that start with a URL, so
+ * every shard holds complete sites. Each shard is mapped and tokenized on
+ * its own by a fork-join worker with its own dictionary and local site
+ * IDs. Merging
+ * then assigns global word IDs in shard order (which gives the same IDs
+ * a serial build would) and concatenates the posting lists of every
+ * word, shifting each shard's site IDs by the number of sites in the
+ * shards before it. Since all sites of shard i come before all sites of
+ * shard i + 1 the concatenation is already sorted. The concatenation is
+ * spread over the workers by ranges of word IDs.
+ */
+public final class ParallelIndexBuilder {
+
+    // Words per merge task; smaller ranges are merged directly.
+    private static final int MERGE_GRAIN = 4096;
+
+    private ParallelIndexBuilder() {}
+
+    /**
+     * Index a crawl file with the given number of threads.
+     *
+     * @param file The crawl file.
+     * @param threads Number of worker threads (and at most shards).
+     * @return The index, the same as MemoryIndex.build() would return.
+     * @throws IOException If reading fails.
+     */
+    public static MemoryIndex build(File file, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        long[] bounds = split(file, threads);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<MemoryIndex>> tasks = new ArrayList<ForkJoinTask<MemoryIndex>>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                tasks.add(pool.submit(new Shard(file, bounds[i], bounds[i + 1])));
+            }
+            MemoryIndex[] shards = new MemoryIndex[tasks.size()];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = tasks.get(i).join();
+            }
+            return merge(shards, pool);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Byte offsets where shards start, plus the file length at the end.
+    // We aim for equal sizes and then move each cut forward to the next
+    // line starting with a URL; cuts that run into each other collapse.
+    static long[] split(File file, int shards) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            long[] bounds = new long[shards + 1];
+            int n = 1;
+            for (int i = 1; i < shards; i++) {
+                long cut = nextSite(raf, Math.max(i * (length / shards), bounds[n - 1] + 1));
+                if (cut < length && cut > bounds[n - 1]) {
+                    bounds[n++] = cut;
+                }
+            }
+            bounds[n++] = length;
+            return Arrays.copyOf(bounds, n);
+        }
+    }
+
+    // Offset of the first line at or after the line following pos that
+    // starts with a URL, or the file length if there is none.
+    static long nextSite(RandomAccessFile raf, long pos) throws IOException {
+        raf.seek(pos - 1);
+        int c;
+        while ((c = raf.read()) != -1 && c != '\n') {
+            // skip the rest of the current line
+        }
+        while (c != -1) {
+            long start = raf.getFilePointer();
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while ((c = raf.read()) != -1 && c != '\n' && c != ' ' && c != '\t' && c != '\r') {
+                line.write(c);
+            }
+            String first = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            if (first.length() > 6 && first.charAt(6) == '/') {
+                return start;
+            }
+            while (c != -1 && c != '\n') {
+                c = raf.read();
+            }
+        }
+        return raf.length();
+    }
+
+    // Index one shard of the file.
+    private static final class Shard extends RecursiveTask<MemoryIndex> {
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final long start;
+        private final long end;
+
+        Shard(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected MemoryIndex compute() {
+            try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+                MemoryIndex.Builder b = new MemoryIndex.Builder();
+                b.read(raf.getChannel(), this.start, this.end);
+                return b.build();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Concatenate the shards in order.
+    private static MemoryIndex merge(MemoryIndex[] shards, ForkJoinPool pool) {
+        TermDictionary terms = new TermDictionary();
+        ArrayList<String> sites = new ArrayList<String>();
+        int[] base = new int[shards.length];
+        // For every shard, (global word ID << 32 | local word ID) sorted,
+        // so a merge task can find its words in each shard quickly.
+        long[][] ids = new long[shards.length][];
+        for (int s = 0; s < shards.length; s++) {
+            base[s] = sites.size();
+            for (int d = 0; d < shards[s].numSites(); d++) {
+                sites.add(shards[s].site(d));
+            }
+            TermDictionary local = shards[s].terms();
+            ids[s] = new long[local.size()];
+            for (int t = 0; t < local.size(); t++) {
+                ids[s][t] = (long) terms.id(local.term(t)) << 32 | t;
+            }
+        }
+        for (long[] a : ids) {
+            Arrays.parallelSort(a);
+        }
+
+        PostingList[] postings = new PostingList[terms.size()];
+        pool.invoke(new Merge(shards, base, ids, postings, 0, postings.length));
+        return new MemoryIndex(terms, sites, postings);
+    }
+
+    // Build the global posting lists for words lo (inclusive) to hi.
+    private static final class Merge extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final MemoryIndex[] shards;
+        private final int[] base;
+        private final long[][] ids;
+        private final PostingList[] postings;
+        private final int lo;
+        private final int hi;
+
+        Merge(MemoryIndex[] shards, int[] base, long[][] ids,
+              PostingList[] postings, int lo, int hi) {
+            this.shards = shards;
+            this.base = base;
+            this.ids = ids;
+            this.postings = postings;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo > MERGE_GRAIN) {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(
+                    new Merge(this.shards, this.base, this.ids, this.postings, this.lo, mid),
+                    new Merge(this.shards, this.base, this.ids, this.postings, mid, this.hi));
+                return;
+            }
+            PostingList.Builder[] out = new PostingList.Builder[this.hi - this.lo];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = new PostingList.Builder();
+            }
+            for (int s = 0; s < this.shards.length; s++) {
+                long[] a = this.ids[s];
+                int i = Arrays.binarySearch(a, (long) this.lo << 32);
+                if (i < 0) {
+                    i = -i - 1;
+                }
+                for (; i < a.length && (int) (a[i] >>> 32) < this.hi; i++) {
+                    PostingList.Builder b = out[(int) (a[i] >>> 32) - this.lo];
+                    PostingList.Cursor c = this.shards[s].postings((int) a[i]).cursor();
+                    for (int d = c.next(); d != PostingList.Cursor.END; d = c.next()) {
+                        b.add(d + this.base[s], c.tf());
+                    }
+                }
+            }
+            for (int i = 0; i < out.length; i++) {
+                this.postings[this.lo + i] = out[i].build();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class ParallelIndexBuilderTest {
+
+    private static File crawl(String text) throws IOException {
+        File f = File.createTempFile("crawl", ".txt");
+        Files.write(f.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    // Same words with the same IDs, sites, postings and tfs.
+    private static void assertSameIndex(MemoryIndex expected, MemoryIndex actual) {
+        assertEquals(expected.numSites(), actual.numSites());
+        assertEquals(expected.numTerms(), actual.numTerms());
+        for (int d = 0; d < expected.numSites(); d++) {
+            assertEquals(expected.site(d), actual.site(d));
+        }
+        for (int t = 0; t < expected.numTerms(); t++) {
+            assertEquals(expected.terms().term(t), actual.terms().term(t));
+            PostingList.Cursor e = expected.postings(t).cursor();
+            PostingList.Cursor a = actual.postings(t).cursor();
+            for (int d = e.next(); d != PostingList.Cursor.END; d = e.next()) {
+                assertEquals(d, a.next());
+                assertEquals(e.tf(), a.tf());
+            }
+            assertEquals(PostingList.Cursor.END, a.next());
+        }
+    }
+
+    @Test
+    public void sameIndexAsSerialBuild() throws IOException {
+        Random r = new Random(8);
+        // Words before the first URL belong to a site without one.
+        StringBuilder text = new StringBuilder("orphan words here\n");
+        for (int s = 0; s < 500; s++) {
+            text.append("http://s").append(r.nextInt(400)).append(".com/");
+            // Some pages go on for many lines, so shard cuts land
+            // inside them and have to move on to the next URL.
+            int lines = r.nextInt(10) == 0 ? 50 : 1 + r.nextInt(3);
+            for (int l = 0; l < lines; l++) {
+                if (l > 0) {
+                    text.append(r.nextInt(20) == 0 ? "\n  skipped line" : "").append('\n');
+                }
+                for (int w = r.nextInt(8); w >= 0; w--) {
+                    text.append(' ').append("w").append(r.nextInt(300));
+                }
+            }
+            text.append('\n');
+        }
+        File f = crawl(text.toString());
+        try {
+            MemoryIndex expected = MemoryIndex.build(f);
+            assertEquals("", expected.site(0));
+            for (int threads : new int[] {1, 2, 3, 4, 7, 16}) {
+                assertSameIndex(expected, ParallelIndexBuilder.build(f, threads));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void moreThreadsThanSites() throws IOException {
+        File f = crawl("http://a.com/ x y\nhttp://b.com/ y\n");
+        try {
+            MemoryIndex index = ParallelIndexBuilder.build(f, 8);
+            assertSameIndex(MemoryIndex.build(f), index);
+            assertArrayEquals(new int[] {0, 1}, index.postings("y").toArray());
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void splitCutsAtSites() throws IOException {
+        File f = crawl("http://a.com/ x\ny z\nhttp://b.com/ x\n");
+        try {
+            long[] bounds = ParallelIndexBuilder.split(f, 4);
+            assertEquals(3, bounds.length);
+            assertEquals(0, bounds[0]);
+            assertEquals(20, bounds[1]);
+            assertEquals(f.length(), bounds[2]);
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,553 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sorted sets of document IDs with term frequencies, compressed.
+ *
+ * A posting list holds the IDs of all documents a term appears in, in
+ * ascending order and without duplicates, and for each document how
+ * often the term appears there (its term frequency, tf). Instead of
+ * storing the IDs themselves we store the gaps between consecutive IDs,
+ * and each gap and tf as a variable-byte integer: seven bits per byte,
+ * high bit set on every byte except the last. Documents of a common term
+ * are close together and most tfs are small, so most postings take two
+ * bytes.
+ *
+ * To find a document without decoding everything in front of it, the
+ * postings are grouped into blocks of SKIP documents and a skip table
+ * records where each block starts. Cursor.advance() gallops through the
+ * skip table and only decodes the one block the target can be in, which
+ * is what makes intersecting a short list with a long one cheap. The
+ * skip table also has the highest tf of every block, so ranking (see
+ * TopK) can tell that no document in a block can make it into the
+ * results without decoding the block.
+ *
+ * Lists of very common terms are dense: they hold a good part of all
+ * documents, and combining them decodes every one of their postings.
+ * Those lists also have a Bitmap of their documents, made on first use
+ * and kept, which Query uses to AND and OR them a word at a time when
+ * term frequencies don't matter.
+ *
+ * Encoded layout (all ints big-endian):
+ *
+ *   int      number of documents
+ *   int      number of skip entries, one per block except the first
+ *   int      last document ID, -1 if there are none
+ *   int      highest tf in the first block
+ *   int[3]   per skip entry: last ID of the previous block, offset of
+ *            the block's first gap relative to the start of the gaps,
+ *            highest tf in the block
+ *   byte[]   variable-byte gap and tf of every document (the first
+ *            "gap" is the first ID itself)
+ *
+ * Posting lists are immutable. They are made with a Builder and read
+ * with a Cursor; the Cursor decodes on the fly so reading never needs
+ * more memory than the encoded bytes.
+ */
+public final class PostingList {
+
+    /** The list without any documents. */
+    public static final PostingList EMPTY = new Builder().build();
+
+    // Documents per block; every block but the first gets a skip entry.
+    static final int SKIP = 64;
+
+    /** Ratio of ID range to size up to which a list counts as dense. */
+    static final int DENSE = 16;
+
+    /** Size below which a list never counts as dense. */
+    static final int MIN_DENSE = Bitmap.ARRAY_MAX;
+
+    private static final int HEADER = 16;
+    private static final int SKIP_ENTRY = 12;
+
+    // Encoded bytes, always from index 0 to the limit. We only ever use
+    // absolute get() so a PostingList can be shared between threads.
+    private final ByteBuffer bytes;
+    private final int size;
+    private final int skips;
+    private final int data;
+    // Bitmap of a dense list, made on first use; racing threads make the
+    // same thing.
+    private volatile Bitmap bitmap;
+
+    private PostingList(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.size = bytes.getInt(0);
+        this.skips = bytes.getInt(4);
+        this.data = HEADER + this.skips * SKIP_ENTRY;
+    }
+
+    // Wrap bytes written by encoded(), for example ones read back from
+    // an index file. The buffer must start at index 0.
+    static PostingList wrap(ByteBuffer bytes) {
+        return new PostingList(bytes);
+    }
+
+    // The encoding of this list, positioned at 0 with the limit at the
+    // end; it's a view, so don't write into it.
+    ByteBuffer encoded() {
+        return this.bytes.duplicate();
+    }
+
+    // Last document ID before block i + 1.
+    private int skipDoc(int i) {
+        return this.bytes.getInt(HEADER + i * SKIP_ENTRY);
+    }
+
+    // Position of the first gap of block i + 1.
+    private int skipPos(int i) {
+        return this.data + this.bytes.getInt(HEADER + i * SKIP_ENTRY + 4);
+    }
+
+    // Highest tf in block b.
+    private int blockMaxTf(int b) {
+        return b == 0 ? this.bytes.getInt(12) : this.bytes.getInt(HEADER + (b - 1) * SKIP_ENTRY + 8);
+    }
+
+    // Last document ID in block b.
+    private int blockLastDoc(int b) {
+        return b < this.skips ? this.skipDoc(b) : this.bytes.getInt(8);
+    }
+
+    /**
+     * Score of a document in which the term appears tf times. Grows with
+     * tf, but slower and slower: ten occurrences are not worth ten times
+     * as much as one.
+     *
+     * @param tf Term frequency, at least 1.
+     * @return 1 + ln(tf).
+     */
+    public static float score(int tf) {
+        return 1 + (float) Math.log(tf);
+    }
+
+    /**
+     * Number of documents.
+     *
+     * @return Number of document IDs in this list.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Check for the empty list.
+     *
+     * @return True if there are no documents in this list.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Check if the list is dense: it holds at least one in DENSE of the
+     * IDs up to its last one, so a Bitmap of it has mostly bitmap
+     * containers, and it is long enough for that to matter.
+     *
+     * @return True if this list is dense.
+     */
+    public boolean isDense() {
+        return this.size >= MIN_DENSE
+            && (long) this.size * DENSE > this.bytes.getInt(8);
+    }
+
+    /**
+     * The documents as a bitmap. Kept for dense lists, made anew every
+     * time for the others.
+     *
+     * @return A bitmap of the document IDs of this list.
+     */
+    public Bitmap bitmap() {
+        Bitmap b = this.bitmap;
+        if (b == null) {
+            b = Bitmap.of(this);
+            if (this.isDense()) {
+                this.bitmap = b;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Size of the encoding.
+     *
+     * @return Number of bytes this list takes up, header included.
+     */
+    public int sizeInBytes() {
+        return this.bytes.limit();
+    }
+
+    /**
+     * Start reading the list.
+     *
+     * @return A cursor positioned before the first document.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Decode the whole list.
+     *
+     * @return All document IDs in ascending order.
+     */
+    public int[] toArray() {
+        int[] docs = new int[this.size];
+        Cursor c = this.cursor();
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = c.next();
+        }
+        return docs;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.toArray());
+    }
+
+    /**
+     * Intersect two posting lists. The tf of a document in the result is
+     * the sum of its tfs in a and b.
+     *
+     * We walk the shorter list and advance() a cursor on the longer one
+     * to each of its documents, so this is O(n + m) for lists of similar
+     * length and O(n log(m / n)) when one list is much shorter.
+     *
+     * @param a One list.
+     * @param b Another list.
+     * @return The documents in both a and b.
+     */
+    public static PostingList and(PostingList a, PostingList b) {
+        if (a.size > b.size) {
+            PostingList t = a;
+            a = b;
+            b = t;
+        }
+        Builder out = new Builder();
+        Cursor small = a.cursor();
+        Cursor large = b.cursor();
+        int doc = small.next();
+        while (doc != Cursor.END) {
+            int other = large.advance(doc);
+            if (other == Cursor.END) {
+                break;
+            }
+            if (other == doc) {
+                out.add(doc, small.tf() + large.tf());
+                doc = small.next();
+            } else {
+                doc = small.advance(other);
+            }
+        }
+        return out.build();
+    }
+
+    /**
+     * Unite two posting lists by merging them, O(n + m). Tfs of documents
+     * in both lists are added up.
+     *
+     * @param a One list.
+     * @param b Another list.
+     * @return The documents in a or b (or both).
+     */
+    public static PostingList or(PostingList a, PostingList b) {
+        if (a.isEmpty()) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        Builder out = new Builder();
+        Cursor x = a.cursor();
+        Cursor y = b.cursor();
+        int dx = x.next();
+        int dy = y.next();
+        while (dx != Cursor.END || dy != Cursor.END) {
+            if (dx <= dy) {
+                if (dx == dy) {
+                    out.add(dx, x.tf() + y.tf());
+                    dy = y.next();
+                } else {
+                    out.add(dx, x.tf());
+                }
+                dx = x.next();
+            } else {
+                out.add(dy, y.tf());
+                dy = y.next();
+            }
+        }
+        return out.build();
+    }
+
+    /**
+     * Reads a posting list front to back.
+     */
+    public final class Cursor implements DocCursor {
+        private int pos = PostingList.this.data;
+        private int read;
+        private int doc = -1;
+        private int tf;
+
+        private Cursor() {}
+
+        @Override
+        public int doc() {
+            return this.doc;
+        }
+
+        /**
+         * Term frequency of the current document.
+         *
+         * @return How often the term appears in doc(), 0 if the cursor
+         *     is not on a document.
+         */
+        public int tf() {
+            return this.doc == END ? 0 : this.tf;
+        }
+
+        @Override
+        public float score() {
+            return this.doc == END || this.doc < 0 ? 0 : PostingList.score(this.tf);
+        }
+
+        @Override
+        public int next() {
+            if (this.read == PostingList.this.size) {
+                this.doc = END;
+                return END;
+            }
+            int gap = this.varint();
+            this.tf = this.varint();
+            this.doc = (this.read == 0 ? 0 : this.doc) + gap;
+            this.read++;
+            return this.doc;
+        }
+
+        private int varint() {
+            ByteBuffer b = PostingList.this.bytes;
+            int v = 0;
+            int shift = 0;
+            byte x;
+            do {
+                x = b.get(this.pos++);
+                v |= (x & 0x7f) << shift;
+                shift += 7;
+            } while (x < 0);
+            return v;
+        }
+
+        // Block holding the first document >= target, at or after the
+        // block we're in; -1 if there is no such document.
+        private int blockOf(int target) {
+            PostingList p = PostingList.this;
+            if (p.size == 0 || target > p.bytes.getInt(8)) {
+                return -1;
+            }
+            // Skip entry i holds the last document of block i; find the
+            // first one >= target.
+            int lo = Math.max(0, (this.read - 1) / SKIP);
+            int hi = p.skips;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (p.skipDoc(mid) < target) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        @Override
+        public float blockMax(int target) {
+            int b = this.blockOf(target);
+            return b < 0 ? 0 : PostingList.score(PostingList.this.blockMaxTf(b));
+        }
+
+        @Override
+        public int blockEnd(int target) {
+            int b = this.blockOf(target);
+            return b < 0 ? END : PostingList.this.blockLastDoc(b);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.doc >= target) {
+                return this.doc;
+            }
+            this.skipTo(target);
+            int d;
+            do {
+                d = this.next();
+            } while (d < target);
+            return d;
+        }
+
+        // Jump to the last block that starts before target, if that's
+        // further ahead than where we are. Skip entry i describes block
+        // i + 1; we gallop forward from the current block and then do a
+        // binary search in the range we overshot.
+        private void skipTo(int target) {
+            PostingList p = PostingList.this;
+            int lo = this.read / SKIP - 1;
+            if (lo + 1 >= p.skips || p.skipDoc(lo + 1) >= target) {
+                return;
+            }
+            int step = 1;
+            int hi = lo + 1;
+            while (hi < p.skips && p.skipDoc(hi) < target) {
+                lo = hi;
+                hi = lo + step;
+                step *= 2;
+            }
+            hi = Math.min(hi, p.skips);
+            // Now skipDoc(lo) < target and lo < hi; find the last such lo.
+            while (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                if (p.skipDoc(mid) < target) {
+                    lo = mid;
+                } else {
+                    hi = mid;
+                }
+            }
+            this.doc = p.skipDoc(lo);
+            this.pos = p.skipPos(lo);
+            this.read = (lo + 1) * SKIP;
+        }
+    }
+
+    /**
+     * Collects document IDs for a new posting list.
+     *
+     * IDs have to be added in ascending order; adding the same ID again
+     * right away adds to its tf, which is exactly what happens when a
+     * word shows up several times on the same page.
+     */
+    public static final class Builder {
+        private byte[] bytes = new byte[16];
+        private int length;
+        private int size;
+        private int last = -1;
+        // Tf of the last document; written when the next one comes.
+        private int tf;
+        private int[] skips = new int[0];
+        // Highest tf of every block.
+        private int[] maxTf = new int[1];
+
+        /**
+         * Add one occurrence in a document.
+         *
+         * @param doc The document ID.
+         * @throws IllegalArgumentException If doc is negative or less
+         *     than the last ID added.
+         */
+        public void add(int doc) {
+            this.add(doc, 1);
+        }
+
+        /**
+         * Add several occurrences in a document.
+         *
+         * @param doc The document ID.
+         * @param tf Number of occurrences, at least 1.
+         * @throws IllegalArgumentException If doc is negative or less
+         *     than the last ID added, or tf is less than 1.
+         */
+        public void add(int doc, int tf) {
+            if (tf < 1) {
+                throw new IllegalArgumentException("bad tf " + tf);
+            }
+            if (doc < 0) {
+                throw new IllegalArgumentException("negative doc " + doc);
+            }
+            if (doc == this.last) {
+                this.tf += tf;
+                return;
+            }
+            if (doc < this.last) {
+                throw new IllegalArgumentException("out of order doc " + doc);
+            }
+            this.flush();
+            int gap = this.size == 0 ? doc : doc - this.last;
+            if (this.size > 0 && this.size % SKIP == 0) {
+                int n = this.size / SKIP - 1;
+                if (2 * n + 2 > this.skips.length) {
+                    this.skips = Arrays.copyOf(this.skips, 2 * n + 16);
+                    this.maxTf = Arrays.copyOf(this.maxTf, n + 9);
+                }
+                this.skips[2 * n] = this.last;
+                this.skips[2 * n + 1] = this.length;
+            }
+            this.write(gap);
+            this.last = doc;
+            this.tf = tf;
+            this.size++;
+        }
+
+        // Write the tf of the last document.
+        private void flush() {
+            if (this.size == 0) {
+                return;
+            }
+            int block = (this.size - 1) / SKIP;
+            this.maxTf[block] = Math.max(this.maxTf[block], this.tf);
+            this.write(this.tf);
+        }
+
+        private void write(int v) {
+            if (this.length + 5 > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, this.bytes.length * 2);
+            }
+            while ((v & ~0x7f) != 0) {
+                this.bytes[this.length++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            this.bytes[this.length++] = (byte) v;
+        }
+
+        /**
+         * Number of documents added so far.
+         *
+         * @return Number of distinct document IDs.
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Memory taken by the builder's arrays.
+         *
+         * @return Their size in bytes, capacity included.
+         */
+        public int sizeInBytes() {
+            return this.bytes.length + 4 * (this.skips.length + this.maxTf.length);
+        }
+
+        /**
+         * Make the posting list. The builder can't be used afterwards.
+         *
+         * @return The posting list of all documents added.
+         */
+        public PostingList build() {
+            this.flush();
+            int n = this.size == 0 ? 0 : (this.size - 1) / SKIP;
+            ByteBuffer b = ByteBuffer.allocate(HEADER + n * SKIP_ENTRY + this.length);
+            b.putInt(this.size);
+            b.putInt(n);
+            b.putInt(this.last);
+            b.putInt(this.maxTf[0]);
+            for (int i = 0; i < n; i++) {
+                b.putInt(this.skips[2 * i]);
+                b.putInt(this.skips[2 * i + 1]);
+                b.putInt(this.maxTf[i + 1]);
+            }
+            b.put(this.bytes, 0, this.length);
+            b.clear();
+            this.bytes = null;
+            this.skips = null;
+            this.maxTf = null;
+            return new PostingList(b);
+        }
+    }
+}
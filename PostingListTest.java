@@ -0,0 +1,211 @@
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class PostingListTest {
+
+    private static PostingList list(int... docs) {
+        PostingList.Builder b = new PostingList.Builder();
+        for (int d : docs) {
+            b.add(d);
+        }
+        return b.build();
+    }
+
+    @Test
+    public void emptyList() {
+        assertEquals(0, PostingList.EMPTY.size());
+        assertEquals(PostingList.Cursor.END, PostingList.EMPTY.cursor().next());
+    }
+
+    @Test
+    public void roundTrip() {
+        int[] docs = {0, 1, 5, 127, 128, 300, 16384, 1 << 28, Integer.MAX_VALUE - 1};
+        assertArrayEquals(docs, list(docs).toArray());
+    }
+
+    @Test
+    public void duplicatesIgnored() {
+        PostingList p = list(3, 3, 3, 7, 7, 9);
+        assertEquals(3, p.size());
+        assertArrayEquals(new int[] {3, 7, 9}, p.toArray());
+    }
+
+    @Test
+    public void repeatsCountAsTermFrequency() {
+        PostingList.Builder b = new PostingList.Builder();
+        b.add(3);
+        b.add(3);
+        b.add(3);
+        b.add(7, 5);
+        b.add(7);
+        b.add(9);
+        PostingList.Cursor c = b.build().cursor();
+        assertEquals(0, c.score(), 0);
+        c.next();
+        assertEquals(3, c.tf());
+        c.next();
+        assertEquals(6, c.tf());
+        c.next();
+        assertEquals(1, c.tf());
+        assertEquals(1.0, c.score(), 1e-6);
+        c.next();
+        assertEquals(0, c.tf());
+    }
+
+    @Test
+    public void blockMaxBoundsEveryScore() {
+        Random r = new Random(7);
+        PostingList.Builder b = new PostingList.Builder();
+        int[] tfs = new int[5000];
+        for (int d = 0; d < tfs.length; d++) {
+            if (r.nextInt(3) == 0) {
+                tfs[d] = 1 + r.nextInt(r.nextInt(10) == 0 ? 50 : 3);
+                b.add(d, tfs[d]);
+            }
+        }
+        PostingList p = b.build();
+        PostingList.Cursor probe = p.cursor();
+        PostingList.Cursor c = p.cursor();
+        int prev = -1;
+        for (int d = c.next(); d != PostingList.Cursor.END; d = c.next()) {
+            assertEquals(tfs[d], c.tf());
+            // Any target after the previous document finds d's block.
+            int target = prev + 1 + r.nextInt(d - prev);
+            assertEquals(true, probe.blockEnd(target) >= d);
+            assertEquals(true, c.score() <= probe.blockMax(target));
+            prev = d;
+        }
+        assertEquals(PostingList.Cursor.END, c.blockEnd(tfs.length));
+        assertEquals(0, c.blockMax(tfs.length), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroTermFrequencyRejected() {
+        new PostingList.Builder().add(1, 0);
+    }
+
+    @Test
+    public void andOrAddTermFrequencies() {
+        PostingList.Builder a = new PostingList.Builder();
+        a.add(1, 2);
+        a.add(4, 3);
+        PostingList.Builder b = new PostingList.Builder();
+        b.add(4, 5);
+        b.add(6, 1);
+        PostingList x = a.build();
+        PostingList y = b.build();
+        PostingList.Cursor c = PostingList.and(x, y).cursor();
+        assertEquals(4, c.next());
+        assertEquals(8, c.tf());
+        c = PostingList.or(x, y).cursor();
+        c.next();
+        assertEquals(2, c.tf());
+        c.next();
+        assertEquals(8, c.tf());
+        c.next();
+        assertEquals(1, c.tf());
+    }
+
+    @Test
+    public void smallGapsTakeOneByte() {
+        int[] docs = new int[100];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = i * 2;
+        }
+        // Header, one skip entry, and a one byte gap and tf per document.
+        assertEquals(16 + 12 + 100 * 2, list(docs).sizeInBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfOrderRejected() {
+        list(5, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeDocRejected() {
+        // -1 is also what an empty builder has as its last ID.
+        new PostingList.Builder().add(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeDocRejectedLater() {
+        list(3, -1);
+    }
+
+    // Random sorted set of about n documents below max.
+    private static int[] randomDocs(Random random, int n, int max) {
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        while (set.size() < n) {
+            set.add(random.nextInt(max));
+        }
+        int[] docs = new int[n];
+        int i = 0;
+        for (int d : set) {
+            docs[i++] = d;
+        }
+        return docs;
+    }
+
+    @Test
+    public void advanceFindsEveryTarget() {
+        int[] docs = randomDocs(new Random(1), 5000, 100000);
+        PostingList p = list(docs);
+        for (int target = 0; target < 100000; target += 997) {
+            PostingList.Cursor c = p.cursor();
+            int expected = PostingList.Cursor.END;
+            for (int d : docs) {
+                if (d >= target) {
+                    expected = d;
+                    break;
+                }
+            }
+            assertEquals(expected, c.advance(target));
+        }
+    }
+
+    @Test
+    public void andMatchesSets() {
+        Random random = new Random(2);
+        int[] a = randomDocs(random, 50, 100000);
+        int[] b = randomDocs(random, 20000, 100000);
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for (int d : a) {
+            expected.add(d);
+        }
+        TreeSet<Integer> bs = new TreeSet<Integer>();
+        for (int d : b) {
+            bs.add(d);
+        }
+        expected.retainAll(bs);
+        int[] and = PostingList.and(list(a), list(b)).toArray();
+        assertEquals(expected.size(), and.length);
+        int i = 0;
+        for (int d : expected) {
+            assertEquals(d, and[i++]);
+        }
+        assertArrayEquals(and, PostingList.and(list(b), list(a)).toArray());
+    }
+
+    @Test
+    public void orMatchesSets() {
+        Random random = new Random(3);
+        int[] a = randomDocs(random, 300, 1000);
+        int[] b = randomDocs(random, 500, 1000);
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        for (int d : a) {
+            expected.add(d);
+        }
+        for (int d : b) {
+            expected.add(d);
+        }
+        int[] or = PostingList.or(list(a), list(b)).toArray();
+        assertEquals(expected.size(), or.length);
+        int i = 0;
+        for (int d : expected) {
+            assertEquals(d, or[i++]);
+        }
+    }
+}
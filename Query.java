@@ -0,0 +1,727 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Boolean queries over an index, as expression trees.
+ *
+ * JHUgle reads queries in postfix ("java tutorial &&"); instead of
+ * computing each AND and OR as soon as it's read we build a tree and
+ * evaluate the whole thing when the results are asked for. That lets us
+ * plan the evaluation:
+ *
+ * - Nested ANDs (and nested ORs) are flattened into one node with many
+ *   operands, and repeated operands are dropped.
+ * - AND looks at its operands from the shortest posting list to the
+ *   longest: the shortest one leads and the others only have to confirm
+ *   its documents with advance(), which skips over most of their lists.
+ * - An AND with an empty operand is empty, empty operands of an OR are
+ *   dropped, without reading anything.
+ * - Nothing is computed up front: cursor() combines the cursors of the
+ *   operands into a cursor that finds the next result when asked, so
+ *   without a cache the only list that ever gets built is the final
+ *   result.
+ *
+ * Each query also has a key, a normalized form of the expression that
+ * doesn't depend on the order of operands, under which results are kept
+ * in a QueryCache. Given a cache, every AND and OR is evaluated in full
+ * and its result kept, sub-expressions too, so a later query that
+ * shares a part with an earlier one reads that part from the cache.
+ *
+ * A word ending in '*' ("comput*") stands for all words starting with
+ * what comes before the star. The index lists them without looking at
+ * any other word (see Index.terms()) and we OR them into one node: its
+ * cursor merges their posting lists with the same heap as any other OR,
+ * so k words cost O(log k) per result. The node keeps the pattern as its
+ * key, so cache keys stay short however many words it matches.
+ *
+ * Very common words have dense posting lists (see PostingList.isDense())
+ * and merging those document by document is most of the work of a
+ * query. So when all operands of an AND are dense, or any operand of an
+ * OR is, we combine their Bitmaps instead, 64 documents at a time. An
+ * AND of dense and sparse operands intersects the dense ones as bitmaps
+ * and lets the sparse ones lead as usual.
+ *
+ * For ranking (see TopK) the same cursors also score documents with
+ * TF-IDF: a word contributes PostingList.score(tf) times its inverse
+ * document frequency ln(1 + sites / sites with the word), and AND and OR
+ * add up the scores of their operands that match the document.
+ */
+public abstract class Query {
+
+    private final String key;
+    private final int cost;
+
+    private Query(String key, int cost) {
+        this.key = key;
+        this.cost = cost;
+    }
+
+    /**
+     * Query for the sites containing a word.
+     *
+     * @param word The word.
+     * @param postings The sites containing the word.
+     * @return The query.
+     */
+    public static Query term(String word, PostingList postings) {
+        return new Term(word, postings);
+    }
+
+    /**
+     * Query for a word whose sites are read from cursors made on demand,
+     * for indexes that don't keep a single posting list per word.
+     *
+     * @param word The word.
+     * @param size Number of sites with the word, or an upper bound.
+     * @param cursors Makes a new cursor over the sites, scoring them
+     *     like PostingList.Cursor does.
+     * @param bitmap Makes a bitmap of the sites if there are many of
+     *     them (see PostingList.isDense()), null otherwise.
+     * @return The query.
+     */
+    public static Query term(String word, int size, Supplier<DocCursor> cursors,
+                             Supplier<Bitmap> bitmap) {
+        return new Lazy(word, size, cursors, bitmap);
+    }
+
+    /**
+     * Query for the sites containing any word that starts with a prefix.
+     *
+     * @param prefix The prefix, without the '*'.
+     * @param index Index to look the words up in.
+     * @return The query, with key prefix + "*".
+     * @throws IllegalArgumentException If the prefix is empty.
+     */
+    public static Query prefix(String prefix, Index index) {
+        if (prefix.isEmpty()) {
+            throw new IllegalArgumentException("empty prefix");
+        }
+        List<String> words = new ArrayList<String>(index.terms(prefix));
+        words.sort(null);
+        Query[] terms = new Query[words.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = index.term(words.get(i));
+        }
+        return new Prefix(prefix + "*", terms);
+    }
+
+    // Whether a token of a postfix query is a prefix query, not a word.
+    static boolean isPrefix(String token) {
+        return token.length() > 1 && token.endsWith("*");
+    }
+
+    /**
+     * Query for the sites matching both a and b.
+     *
+     * @param a One query.
+     * @param b Another query.
+     * @return The conjunction of a and b.
+     */
+    public static Query and(Query a, Query b) {
+        return combine(true, a, b);
+    }
+
+    /**
+     * Query for the sites matching a or b.
+     *
+     * @param a One query.
+     * @param b Another query.
+     * @return The disjunction of a and b.
+     */
+    public static Query or(Query a, Query b) {
+        return combine(false, a, b);
+    }
+
+    /**
+     * Parse a postfix query like "java tutorial && python ||".
+     *
+     * @param postfix Words and the operators "&&" and "||", separated by
+     *     whitespace.
+     * @param index Index to look the words up in.
+     * @return The query.
+     * @throws IllegalArgumentException If the query is not well formed.
+     */
+    public static Query parse(String postfix, Index index) {
+        Deque<Query> stack = new ArrayDeque<Query>();
+        for (String token : postfix.trim().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (token.equals("&&") || token.equals("||")) {
+                if (stack.size() < 2) {
+                    throw new IllegalArgumentException("not enough operands for " + token);
+                }
+                Query a = stack.pop();
+                Query b = stack.pop();
+                stack.push(token.equals("&&") ? and(a, b) : or(a, b));
+            } else if (isPrefix(token)) {
+                stack.push(prefix(token.substring(0, token.length() - 1), index));
+            } else {
+                stack.push(index.term(token));
+            }
+        }
+        if (stack.size() != 1) {
+            throw new IllegalArgumentException("not a single query: " + postfix);
+        }
+        return stack.pop();
+    }
+
+    /**
+     * Normalized expression, the same for queries that only differ in
+     * the order or repetition of AND and OR operands.
+     *
+     * @return The key of this query.
+     */
+    public String key() {
+        return this.key;
+    }
+
+    /**
+     * Estimated number of results. Exact for words, an upper bound for
+     * everything else.
+     *
+     * @return Estimated number of sites this query matches.
+     */
+    public int cost() {
+        return this.cost;
+    }
+
+    /**
+     * Cursor over the results. Without a cache they are computed while
+     * the cursor is read; with one, ANDs and ORs are computed in full
+     * (or read from the cache) and added to it.
+     *
+     * @param cache Cache to use, or null.
+     * @return A cursor over the matching site IDs.
+     */
+    public abstract DocCursor cursor(QueryCache cache);
+
+    // Build the cursor without looking for this query in the cache.
+    abstract DocCursor plan(QueryCache cache);
+
+    // Whether plan() works on bitmaps.
+    abstract boolean dense();
+
+    // The results as a bitmap; cheap if dense(), at least no worse than
+    // reading the cursor otherwise.
+    abstract Bitmap bitmap(QueryCache cache);
+
+    // Build a cursor that scores documents with TF-IDF. Never uses the
+    // cache since cached results don't have the tf of each word.
+    abstract DocCursor scorer(int numSites);
+
+    /**
+     * All results, from the cache if possible. Results that had to be
+     * computed are added to the cache.
+     *
+     * @param cache Cache to use, or null.
+     * @return The matching site IDs.
+     */
+    public PostingList evaluate(QueryCache cache) {
+        PostingList p = cache == null ? null : cache.get(this.key);
+        return p != null ? p : this.materialize(cache);
+    }
+
+    // Compute all results and add them to the cache, if any.
+    PostingList materialize(QueryCache cache) {
+        PostingList p = postingsOf(this.plan(cache));
+        if (cache != null) {
+            cache.put(this.key, p);
+        }
+        return p;
+    }
+
+    @Override
+    public String toString() {
+        return this.key;
+    }
+
+    private static PostingList postingsOf(DocCursor c) {
+        PostingList.Builder b = new PostingList.Builder();
+        for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+            b.add(d);
+        }
+        return b.build();
+    }
+
+    private static Bitmap bitmapOf(DocCursor c) {
+        Bitmap.Builder b = new Bitmap.Builder();
+        for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+            b.add(d);
+        }
+        return b.build();
+    }
+
+    // Inverse document frequency of a word on size of numSites sites.
+    private static float idf(int numSites, int size) {
+        return (float) Math.log(1 + (double) numSites / size);
+    }
+
+    // Flatten a and b into one node, with the operands sorted by key and
+    // without duplicates.
+    private static Query combine(boolean and, Query a, Query b) {
+        List<Query> operands = new ArrayList<Query>();
+        for (Query q : new Query[] {a, b}) {
+            if (q instanceof Node && !(q instanceof Prefix) && ((Node) q).and == and) {
+                operands.addAll(Arrays.asList(((Node) q).operands));
+            } else {
+                operands.add(q);
+            }
+        }
+        operands.sort(Comparator.comparing(Query::key));
+        int n = 0;
+        for (Query q : operands) {
+            if (n == 0 || !operands.get(n - 1).key.equals(q.key)) {
+                operands.set(n++, q);
+            }
+        }
+        if (n == 1) {
+            return operands.get(0);
+        }
+        return new Node(and, operands.subList(0, n).toArray(new Query[n]));
+    }
+
+    private static final class Term extends Query {
+        private final PostingList postings;
+
+        Term(String word, PostingList postings) {
+            super(word, postings.size());
+            this.postings = postings;
+        }
+
+        @Override
+        public DocCursor cursor(QueryCache cache) {
+            return this.postings.cursor();
+        }
+
+        @Override
+        DocCursor plan(QueryCache cache) {
+            return this.postings.cursor();
+        }
+
+        @Override
+        boolean dense() {
+            return this.postings.isDense();
+        }
+
+        @Override
+        Bitmap bitmap(QueryCache cache) {
+            return this.postings.bitmap();
+        }
+
+        @Override
+        DocCursor scorer(int numSites) {
+            if (this.postings.isEmpty()) {
+                return PostingList.EMPTY.cursor();
+            }
+            return new Weighted(this.postings.cursor(), idf(numSites, this.postings.size()));
+        }
+
+        @Override
+        public PostingList evaluate(QueryCache cache) {
+            return this.postings;
+        }
+    }
+
+    // A word read through cursors made on demand.
+    private static final class Lazy extends Query {
+        private final Supplier<DocCursor> cursors;
+        private final Supplier<Bitmap> bitmap;
+
+        Lazy(String word, int size, Supplier<DocCursor> cursors, Supplier<Bitmap> bitmap) {
+            super(word, size);
+            this.cursors = cursors;
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public DocCursor cursor(QueryCache cache) {
+            return this.cursors.get();
+        }
+
+        @Override
+        DocCursor plan(QueryCache cache) {
+            return this.cursors.get();
+        }
+
+        @Override
+        boolean dense() {
+            return this.bitmap != null;
+        }
+
+        @Override
+        Bitmap bitmap(QueryCache cache) {
+            return this.bitmap != null ? this.bitmap.get() : bitmapOf(this.cursors.get());
+        }
+
+        @Override
+        DocCursor scorer(int numSites) {
+            if (this.cost() == 0) {
+                return PostingList.EMPTY.cursor();
+            }
+            return new Weighted(this.cursors.get(), idf(numSites, this.cost()));
+        }
+    }
+
+    // AND or OR of two or more operands.
+    private static class Node extends Query {
+        private final boolean and;
+        private final Query[] operands;
+
+        Node(boolean and, Query[] operands) {
+            this(key(and, operands), and, operands);
+        }
+
+        Node(String key, boolean and, Query[] operands) {
+            super(key, cost(and, operands));
+            this.and = and;
+            this.operands = operands;
+        }
+
+        // Words never contain blanks, so a key with blanks is always one
+        // of these and can't be confused with a word.
+        private static String key(boolean and, Query[] operands) {
+            StringBuilder s = new StringBuilder("(");
+            for (int i = 0; i < operands.length; i++) {
+                if (i > 0) {
+                    s.append(and ? " && " : " || ");
+                }
+                s.append(operands[i].key);
+            }
+            return s.append(")").toString();
+        }
+
+        private static int cost(boolean and, Query[] operands) {
+            long c = and ? Integer.MAX_VALUE : 0;
+            for (Query q : operands) {
+                c = and ? Math.min(c, q.cost) : c + q.cost;
+            }
+            return (int) Math.min(c, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public DocCursor cursor(QueryCache cache) {
+            PostingList cached = cache == null ? null : cache.get(this.key());
+            if (cached != null) {
+                return cached.cursor();
+            }
+            return cache == null ? this.plan(null) : this.materialize(cache).cursor();
+        }
+
+        @Override
+        DocCursor plan(QueryCache cache) {
+            if (this.dense()) {
+                return this.bitmaps(cache).cursor();
+            }
+            if (!this.and) {
+                return this.join(this.operands, q -> q.cursor(cache), null);
+            }
+            List<Query> sparse = new ArrayList<Query>();
+            Bitmap dense = null;
+            for (Query q : this.operands) {
+                if (!q.dense()) {
+                    sparse.add(q);
+                } else if (dense == null) {
+                    dense = q.bitmap(cache);
+                } else {
+                    dense = Bitmap.and(dense, q.bitmap(cache));
+                }
+            }
+            return this.join(sparse.toArray(new Query[sparse.size()]), q -> q.cursor(cache), dense);
+        }
+
+        @Override
+        DocCursor scorer(int numSites) {
+            return this.join(this.operands, q -> q.scorer(numSites), null);
+        }
+
+        @Override
+        boolean dense() {
+            for (Query q : this.operands) {
+                if (q.dense() != this.and) {
+                    return !this.and;
+                }
+            }
+            return this.and;
+        }
+
+        @Override
+        Bitmap bitmap(QueryCache cache) {
+            PostingList cached = cache == null ? null : cache.get(this.key());
+            if (cached != null) {
+                return cached.bitmap();
+            }
+            if (!this.dense()) {
+                return cache == null ? bitmapOf(this.plan(null)) : this.materialize(cache).bitmap();
+            }
+            Bitmap r = this.bitmaps(cache);
+            if (cache != null) {
+                cache.put(this.key(), postingsOf(r.cursor()));
+            }
+            return r;
+        }
+
+        // AND or OR of the bitmaps of the operands, for dense() nodes.
+        private Bitmap bitmaps(QueryCache cache) {
+            Bitmap r = this.operands[0].bitmap(cache);
+            for (int i = 1; i < this.operands.length && !(this.and && r.isEmpty()); i++) {
+                Bitmap b = this.operands[i].bitmap(cache);
+                r = this.and ? Bitmap.and(r, b) : Bitmap.or(r, b);
+            }
+            return r;
+        }
+
+        // Combine the cursors of some operands, cheapest first, and for
+        // an AND the operands already intersected into dense (if any).
+        private DocCursor join(Query[] operands, Function<Query, DocCursor> cursor, Bitmap dense) {
+            Query[] byCost = operands.clone();
+            Arrays.sort(byCost, Comparator.comparingInt(Query::cost));
+            if (this.and && ((byCost.length > 0 && byCost[0].cost() == 0)
+                             || (dense != null && dense.isEmpty()))) {
+                return PostingList.EMPTY.cursor();
+            }
+            List<DocCursor> cursors = new ArrayList<DocCursor>();
+            for (Query q : byCost) {
+                if (q.cost() > 0) {
+                    cursors.add(cursor.apply(q));
+                }
+            }
+            if (dense != null) {
+                cursors.add(dense.cursor());
+            }
+            if (cursors.isEmpty()) {
+                return PostingList.EMPTY.cursor();
+            }
+            if (cursors.size() == 1) {
+                return cursors.get(0);
+            }
+            DocCursor[] a = cursors.toArray(new DocCursor[cursors.size()]);
+            return this.and ? new AndCursor(a) : new OrCursor(a);
+        }
+    }
+
+    // OR of the words matching a pattern, under the pattern as its key.
+    // Not flattened into other ORs, so it keeps that key.
+    private static final class Prefix extends Node {
+        Prefix(String pattern, Query[] words) {
+            super(pattern, false, words);
+        }
+    }
+
+    // Intersection: the first (shortest) cursor proposes a document, the
+    // others advance to it; if one of them overshoots, the first cursor
+    // advances to where that one landed and we try again.
+    private static final class AndCursor implements DocCursor {
+        private final DocCursor[] cursors;
+        private int doc = -1;
+
+        AndCursor(DocCursor[] cursors) {
+            this.cursors = cursors;
+        }
+
+        private int align(int target) {
+            DocCursor lead = this.cursors[0];
+            outer:
+            while (target != END) {
+                for (int i = 1; i < this.cursors.length; i++) {
+                    int d = this.cursors[i].advance(target);
+                    if (d > target) {
+                        target = lead.advance(d);
+                        continue outer;
+                    }
+                }
+                break;
+            }
+            this.doc = target;
+            return target;
+        }
+
+        @Override
+        public int doc() {
+            return this.doc;
+        }
+
+        @Override
+        public int next() {
+            if (this.doc == END) {
+                return END;
+            }
+            return this.align(this.cursors[0].next());
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.doc >= target) {
+                return this.doc;
+            }
+            return this.align(this.cursors[0].advance(target));
+        }
+
+        @Override
+        public float score() {
+            if (this.doc < 0 || this.doc == END) {
+                return 0;
+            }
+            float s = 0;
+            for (DocCursor c : this.cursors) {
+                s += c.score();
+            }
+            return s;
+        }
+
+        @Override
+        public float blockMax(int target) {
+            float s = 0;
+            for (DocCursor c : this.cursors) {
+                s += c.blockMax(target);
+            }
+            return s;
+        }
+
+        @Override
+        public int blockEnd(int target) {
+            int end = END;
+            for (DocCursor c : this.cursors) {
+                end = Math.min(end, c.blockEnd(target));
+            }
+            return end;
+        }
+    }
+
+    // Union: a binary min-heap of the cursors ordered by their current
+    // document, so the next result is always at the top.
+    private static final class OrCursor implements DocCursor {
+        private final DocCursor[] heap;
+        private int doc = -1;
+
+        OrCursor(DocCursor[] cursors) {
+            this.heap = cursors;
+        }
+
+        private void siftDown(int i) {
+            DocCursor c = this.heap[i];
+            int n = this.heap.length;
+            while (2 * i + 1 < n) {
+                int child = 2 * i + 1;
+                if (child + 1 < n && this.heap[child + 1].doc() < this.heap[child].doc()) {
+                    child++;
+                }
+                if (this.heap[child].doc() >= c.doc()) {
+                    break;
+                }
+                this.heap[i] = this.heap[child];
+                i = child;
+            }
+            this.heap[i] = c;
+        }
+
+        @Override
+        public int doc() {
+            return this.doc;
+        }
+
+        @Override
+        public int next() {
+            if (this.doc == END) {
+                return END;
+            }
+            return this.advance(this.doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.doc >= target) {
+                return this.doc;
+            }
+            // Before the first call every cursor is at -1, which is a
+            // valid heap of equal elements.
+            while (this.heap[0].doc() < target) {
+                this.heap[0].advance(target);
+                this.siftDown(0);
+            }
+            this.doc = this.heap[0].doc();
+            return this.doc;
+        }
+
+        @Override
+        public float score() {
+            if (this.doc < 0 || this.doc == END) {
+                return 0;
+            }
+            float s = 0;
+            for (DocCursor c : this.heap) {
+                if (c.doc() == this.doc) {
+                    s += c.score();
+                }
+            }
+            return s;
+        }
+
+        // Same as for AND: only the operands that match a document count
+        // towards its score, so the sum of all bounds is a bound too.
+        @Override
+        public float blockMax(int target) {
+            float s = 0;
+            for (DocCursor c : this.heap) {
+                s += c.blockMax(target);
+            }
+            return s;
+        }
+
+        @Override
+        public int blockEnd(int target) {
+            int end = END;
+            for (DocCursor c : this.heap) {
+                end = Math.min(end, c.blockEnd(target));
+            }
+            return end;
+        }
+    }
+
+    // Scores of another cursor times a constant weight.
+    private static final class Weighted implements DocCursor {
+        private final DocCursor cursor;
+        private final float weight;
+
+        Weighted(DocCursor cursor, float weight) {
+            this.cursor = cursor;
+            this.weight = weight;
+        }
+
+        @Override
+        public int doc() {
+            return this.cursor.doc();
+        }
+
+        @Override
+        public int next() {
+            return this.cursor.next();
+        }
+
+        @Override
+        public int advance(int target) {
+            return this.cursor.advance(target);
+        }
+
+        @Override
+        public float score() {
+            return this.weight * this.cursor.score();
+        }
+
+        @Override
+        public float blockMax(int target) {
+            return this.weight * this.cursor.blockMax(target);
+        }
+
+        @Override
+        public int blockEnd(int target) {
+            return this.cursor.blockEnd(target);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache for the results of JHUgle queries.
+ *
+ * Results are kept under a normalized form of the query expression (see
+ * Query.key()), so "a b &&" and "b a &&" share an entry, and since every
+ * AND and OR of a query looks here before computing anything and keeps
+ * its result here after, parts of earlier queries are reused by later
+ * ones. Plain terms are not
+ * cached: the index already hands out their posting lists without
+ * copying.
+ *
+ * The cache holds at most a given number of results and a given number
+ * of bytes of posting lists; when either is exceeded the least recently
+ * used results are dropped. Results are only valid for the index they
+ * were computed on, so whoever changes the index has to invalidate() the
+ * cache. All methods are synchronized, so one cache can be shared by
+ * threads answering queries at the same time.
+ */
+public final class QueryCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    // In access order, so the first entry is the least recently used.
+    private final LinkedHashMap<String, PostingList> results =
+        new LinkedHashMap<String, PostingList>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxEntries Maximum number of results to keep.
+     * @param maxBytes Maximum total size of the posting lists kept.
+     */
+    public QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("negative cache size");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cached result for an expression.
+     *
+     * @param key Normalized expression.
+     * @return The result, or null if it isn't cached.
+     */
+    public synchronized PostingList get(String key) {
+        PostingList p = this.results.get(key);
+        if (p == null) {
+            this.misses++;
+        } else {
+            this.hits++;
+        }
+        return p;
+    }
+
+    /**
+     * Remember the result for an expression, dropping old results if the
+     * cache gets too big. Results bigger than the whole cache are not kept.
+     *
+     * @param key Normalized expression.
+     * @param p Its result.
+     */
+    public synchronized void put(String key, PostingList p) {
+        if (p.sizeInBytes() > this.maxBytes || this.maxEntries == 0) {
+            return;
+        }
+        PostingList old = this.results.put(key, p);
+        if (old != null) {
+            this.bytes -= old.sizeInBytes();
+        }
+        this.bytes += p.sizeInBytes();
+        Iterator<PostingList> lru = this.results.values().iterator();
+        while (this.results.size() > this.maxEntries || this.bytes > this.maxBytes) {
+            this.bytes -= lru.next().sizeInBytes();
+            lru.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Drop all results, for example because the index changed. The
+     * counters are kept.
+     */
+    public synchronized void invalidate() {
+        this.results.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * Number of results in the cache.
+     *
+     * @return Number of cached expressions.
+     */
+    public synchronized int size() {
+        return this.results.size();
+    }
+
+    /**
+     * Size of the results in the cache.
+     *
+     * @return Total size of the cached posting lists in bytes.
+     */
+    public synchronized long bytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Number of lookups that found a result.
+     *
+     * @return Number of hits.
+     */
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    /**
+     * Number of lookups that didn't find a result.
+     *
+     * @return Number of misses.
+     */
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    /**
+     * Number of results dropped to make room.
+     *
+     * @return Number of evictions.
+     */
+    public synchronized long evictions() {
+        return this.evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache[" + this.size() + " results, " + this.bytes + " bytes, "
+            + this.hits + " hits, " + this.misses + " misses, "
+            + this.evictions + " evictions]";
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class QueryCacheTest {
+
+    private static PostingList list(int... docs) {
+        PostingList.Builder b = new PostingList.Builder();
+        for (int d : docs) {
+            b.add(d);
+        }
+        return b.build();
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        QueryCache c = new QueryCache(10, 1 << 20);
+        PostingList p = list(1, 2, 3);
+        assertNull(c.get("k"));
+        c.put("k", p);
+        assertSame(p, c.get("k"));
+        assertEquals(1, c.hits());
+        assertEquals(1, c.misses());
+        assertEquals(p.sizeInBytes(), c.bytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        QueryCache c = new QueryCache(2, 1 << 20);
+        c.put("a", list(1));
+        c.put("b", list(2));
+        c.get("a");
+        c.put("c", list(3));
+        assertEquals(2, c.size());
+        assertNull(c.get("b"));
+        assertEquals(false, c.get("a") == null);
+        assertEquals(false, c.get("c") == null);
+        assertEquals(1, c.evictions());
+    }
+
+    @Test
+    public void boundedByBytes() {
+        PostingList p = list(1, 2, 3, 4, 5);
+        QueryCache c = new QueryCache(100, 2 * p.sizeInBytes());
+        c.put("a", p);
+        c.put("b", p);
+        c.put("c", p);
+        assertEquals(2, c.size());
+        assertEquals(2 * p.sizeInBytes(), c.bytes());
+        assertNull(c.get("a"));
+    }
+
+    @Test
+    public void tooBigIsNotCached() {
+        QueryCache c = new QueryCache(100, 4);
+        c.put("a", list(1, 2, 3));
+        assertEquals(0, c.size());
+    }
+
+    @Test
+    public void invalidateDropsEverything() {
+        QueryCache c = new QueryCache(10, 1 << 20);
+        c.put("a", list(1));
+        c.invalidate();
+        assertEquals(0, c.size());
+        assertEquals(0, c.bytes());
+        assertNull(c.get("a"));
+    }
+}
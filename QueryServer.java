@@ -0,0 +1,155 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Answers JHUgle queries over local TCP connections.
+ *
+ * The protocol is line based and UTF-8. A client sends one postfix query
+ * per line ("java tutorial &&") and gets back the URLs of the matching
+ * sites, one per line, followed by an empty line; a query that isn't
+ * well formed, or fails for any other reason, gets a line starting with
+ * "Invalid query: " instead of URLs. Clients may pipeline, that is send many queries without waiting
+ * for the answers: answers come back in the order of the queries, and we
+ * only flush once we've answered everything the client has sent so far,
+ * so a batch of queries costs one round trip instead of one per query.
+ *
+ * Every connection gets its own thread from a cached pool, and all of
+ * them share the index (read-only) and the query cache (synchronized).
+ * The server only listens on the loopback interface.
+ */
+public final class QueryServer implements Closeable {
+
+    private final Index index;
+    private final QueryCache cache;
+    private final ServerSocket socket;
+    private final ExecutorService pool;
+    // Open connections, so close() can hang up on them.
+    private final ConcurrentHashMap<Socket, Boolean> clients =
+        new ConcurrentHashMap<Socket, Boolean>();
+
+    /**
+     * Create a server and start listening. Nothing is answered until
+     * serve() is called.
+     *
+     * @param index The index to query.
+     * @param cache Cache shared by all connections, or null.
+     * @param port Port to listen on, 0 for any free port.
+     * @throws IOException If we can't listen on the port.
+     */
+    public QueryServer(Index index, QueryCache cache, int port) throws IOException {
+        this.index = index;
+        this.cache = cache;
+        this.socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        this.pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "jhugle-connection");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Port the server listens on.
+     *
+     * @return The local port.
+     */
+    public int port() {
+        return this.socket.getLocalPort();
+    }
+
+    /**
+     * Accept connections until the server is closed.
+     *
+     * @throws IOException If accepting fails for another reason.
+     */
+    public void serve() throws IOException {
+        while (!this.socket.isClosed()) {
+            Socket client;
+            try {
+                client = this.socket.accept();
+            } catch (SocketException e) {
+                if (this.socket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            this.clients.insert(client, Boolean.TRUE);
+            try {
+                this.pool.execute(() -> this.handle(client));
+            } catch (RejectedExecutionException e) {
+                // close() shut the pool down after we accepted.
+                this.clients.remove(client);
+                client.close();
+                if (this.socket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Answer queries from one client until it hangs up.
+    private void handle(Socket client) {
+        try (Socket s = client;
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(
+                 new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                this.answer(line, out);
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The client went away (or we closed on it); nothing to do.
+        } finally {
+            this.clients.remove(client);
+        }
+    }
+
+    private void answer(String query, Writer out) throws IOException {
+        PostingList result;
+        try {
+            result = Query.parse(query, this.index).evaluate(this.cache);
+        } catch (RuntimeException e) {
+            // Whatever goes wrong with one query, the connection goes on.
+            String why = e instanceof IllegalArgumentException ? e.getMessage() : e.toString();
+            out.write("Invalid query: " + why + "\n\n");
+            return;
+        }
+        PostingList.Cursor c = result.cursor();
+        for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+            out.write(this.index.site(d));
+            out.write('\n');
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Stop accepting connections and drop the open ones.
+     *
+     * @throws IOException If closing the socket fails.
+     */
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+        for (Socket s : this.clients) {
+            s.close();
+        }
+        this.pool.shutdownNow();
+    }
+}
@@ -0,0 +1,167 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class QueryServerTest {
+
+    private MemoryIndex index;
+    private QueryServer server;
+
+    @Before
+    public void setupServer() throws IOException {
+        MemoryIndex.Builder b = new MemoryIndex.Builder();
+        b.read(ByteBuffer.wrap("http://x.com/ a b\nhttp://y.com/ b c\n"
+            .getBytes(StandardCharsets.UTF_8)));
+        this.index = b.build();
+        this.start(this.index);
+    }
+
+    private void start(Index index) throws IOException {
+        this.server = new QueryServer(index, new QueryCache(16, 1 << 20), 0);
+        Thread t = new Thread(() -> {
+            try {
+                this.server.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @After
+    public void closeServer() throws IOException {
+        this.server.close();
+    }
+
+    private Socket connect() throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), this.server.port());
+    }
+
+    // Read one answer, the lines up to the next empty one.
+    private static String answer(BufferedReader in) throws IOException {
+        StringBuilder s = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            s.append(line).append('\n');
+        }
+        return s.toString();
+    }
+
+    @Test
+    public void pipelinedQueries() throws IOException {
+        try (Socket s = this.connect()) {
+            Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            out.write("a\nb c &&\na c ||\nnope\nb\n");
+            out.flush();
+            assertEquals("http://x.com/\n", answer(in));
+            assertEquals("http://y.com/\n", answer(in));
+            assertEquals("http://x.com/\nhttp://y.com/\n", answer(in));
+            assertEquals("", answer(in));
+            assertEquals("http://x.com/\nhttp://y.com/\n", answer(in));
+        }
+    }
+
+    @Test
+    public void invalidQuery() throws IOException {
+        try (Socket s = this.connect()) {
+            Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            out.write("a &&\na\n");
+            out.flush();
+            assertEquals(true, answer(in).startsWith("Invalid query: "));
+            assertEquals("http://x.com/\n", answer(in));
+        }
+    }
+
+    @Test
+    public void manyClients() throws Exception {
+        Thread[] clients = new Thread[16];
+        final int[] ok = new int[1];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Thread(() -> {
+                try (Socket s = this.connect()) {
+                    Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+                    BufferedReader in = new BufferedReader(
+                        new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                    for (int q = 0; q < 100; q++) {
+                        out.write("a b &&\n");
+                    }
+                    out.flush();
+                    for (int q = 0; q < 100; q++) {
+                        if (!answer(in).equals("http://x.com/\n")) {
+                            return;
+                        }
+                    }
+                    synchronized (ok) {
+                        ok[0]++;
+                    }
+                } catch (IOException e) {
+                    // counted as a failure below
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread t : clients) {
+            t.join();
+        }
+        assertEquals(clients.length, ok[0]);
+    }
+
+    @Test
+    public void failingQueryKeepsTheConnection() throws IOException {
+        this.server.close();
+        this.start(new Index() {
+            @Override
+            public PostingList postings(String term) {
+                if (term.equals("boom")) {
+                    throw new IllegalStateException("boom");
+                }
+                return QueryServerTest.this.index.postings(term);
+            }
+
+            @Override
+            public List<String> terms(String prefix) {
+                return QueryServerTest.this.index.terms(prefix);
+            }
+
+            @Override
+            public String site(int doc) {
+                return QueryServerTest.this.index.site(doc);
+            }
+
+            @Override
+            public int numSites() {
+                return QueryServerTest.this.index.numSites();
+            }
+
+            @Override
+            public int numTerms() {
+                return QueryServerTest.this.index.numTerms();
+            }
+        });
+        try (Socket s = this.connect()) {
+            Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            out.write("a boom ||\na\n");
+            out.flush();
+            assertEquals(true, answer(in).startsWith("Invalid query: "));
+            assertEquals("http://x.com/\n", answer(in));
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class QueryTest {
+
+    private static PostingList list(int... docs) {
+        PostingList.Builder b = new PostingList.Builder();
+        for (int d : docs) {
+            b.add(d);
+        }
+        return b.build();
+    }
+
+    private static Index index(String crawl) {
+        MemoryIndex.Builder b = new MemoryIndex.Builder();
+        b.read(ByteBuffer.wrap(crawl.getBytes(StandardCharsets.UTF_8)));
+        return b.build();
+    }
+
+    private static MemoryIndex memoryIndex(String crawl) {
+        MemoryIndex.Builder b = new MemoryIndex.Builder();
+        b.read(ByteBuffer.wrap(crawl.getBytes(StandardCharsets.UTF_8)));
+        return b.build();
+    }
+
+    private static Query term(String w, int... docs) {
+        return Query.term(w, list(docs));
+    }
+
+    private static int[] drain(DocCursor c) {
+        TreeSet<Integer> s = new TreeSet<Integer>();
+        for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+            s.add(d);
+        }
+        return s.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void keysAreNormalized() {
+        Query a = term("a", 1);
+        Query b = term("b", 2);
+        Query c = term("c", 3);
+        assertEquals(Query.and(a, b).key(), Query.and(b, a).key());
+        assertEquals(Query.or(a, b).key(), Query.or(b, a).key());
+        assertEquals("a", Query.and(a, a).key());
+        assertEquals(false, Query.and(a, b).key().equals(Query.or(a, b).key()));
+        assertEquals(Query.and(Query.and(a, b), c).key(), Query.and(a, Query.and(c, b)).key());
+        assertEquals("(a && b && c)", Query.and(Query.and(a, b), Query.and(c, a)).key());
+        assertEquals("((a || b) && c)", Query.and(c, Query.or(b, a)).key());
+    }
+
+    @Test
+    public void andOrMatchPostingList() {
+        Random r = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            Query[] q = new Query[4];
+            PostingList[] p = new PostingList[4];
+            for (int i = 0; i < 4; i++) {
+                TreeSet<Integer> s = new TreeSet<Integer>();
+                int n = r.nextInt(i == 0 ? 50 : 3000);
+                for (int j = 0; j < n; j++) {
+                    s.add(r.nextInt(5000));
+                }
+                p[i] = list(s.stream().mapToInt(Integer::intValue).toArray());
+                q[i] = Query.term("w" + i, p[i]);
+            }
+            PostingList expected = PostingList.or(
+                PostingList.and(PostingList.and(p[0], p[1]), p[2]), p[3]);
+            Query query = Query.or(Query.and(Query.and(q[0], q[1]), q[2]), q[3]);
+            assertArrayEquals(expected.toArray(), query.evaluate(null).toArray());
+            assertArrayEquals(expected.toArray(), drain(query.cursor(null)));
+        }
+    }
+
+    @Test
+    public void advanceOnCombinedCursor() {
+        Query q = Query.or(Query.and(term("a", 1, 5, 9, 200), term("b", 5, 9, 100, 200)),
+                           term("c", 7, 300));
+        DocCursor c = q.cursor(null);
+        assertEquals(7, c.advance(6));
+        assertEquals(7, c.advance(7));
+        assertEquals(9, c.next());
+        assertEquals(200, c.advance(10));
+        assertEquals(300, c.next());
+        assertEquals(DocCursor.END, c.next());
+        assertEquals(DocCursor.END, c.next());
+    }
+
+    @Test
+    public void emptyOperands() {
+        Query empty = Query.term("nothing", PostingList.EMPTY);
+        Query a = term("a", 1, 2, 3);
+        assertEquals(0, Query.and(a, empty).evaluate(null).size());
+        assertEquals(0, Query.and(a, empty).cost());
+        assertArrayEquals(new int[] {1, 2, 3}, Query.or(empty, a).evaluate(null).toArray());
+        assertEquals(0, Query.or(empty, empty).evaluate(null).size());
+    }
+
+    @Test
+    public void usesCache() {
+        QueryCache cache = new QueryCache(10, 1 << 20);
+        Query q = Query.and(term("a", 1, 2, 3), term("b", 2, 3, 4));
+        assertArrayEquals(new int[] {2, 3}, q.evaluate(cache).toArray());
+        assertEquals(1, cache.size());
+        Query again = Query.or(Query.and(term("b", 2, 3, 4), term("a", 1, 2, 3)), term("c", 9));
+        assertArrayEquals(new int[] {2, 3, 9}, again.evaluate(cache).toArray());
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void cachesSubexpressions() {
+        QueryCache cache = new QueryCache(10, 1 << 20);
+        Query ab = Query.and(term("a", 1, 2, 3), term("b", 2, 3, 4));
+        Query q = Query.or(ab, term("c", 9));
+        assertArrayEquals(new int[] {2, 3, 9}, q.evaluate(cache).toArray());
+        assertEquals(0, cache.hits());
+        assertEquals(2, cache.size());
+        assertArrayEquals(new int[] {2, 3}, cache.get(ab.key()).toArray());
+        assertArrayEquals(new int[] {2, 3}, ab.evaluate(cache).toArray());
+        assertEquals(2, cache.hits());
+
+        // Dense sub-results are combined as bitmaps and kept too.
+        PostingList.Builder all = new PostingList.Builder();
+        PostingList.Builder even = new PostingList.Builder();
+        for (int d = 0; d < 3 * PostingList.MIN_DENSE; d++) {
+            all.add(d);
+            if (d % 2 == 0) {
+                even.add(d);
+            }
+        }
+        Query dense = Query.and(Query.term("all", all.build()), Query.term("even", even.build()));
+        Query rare = term("rare", 1, 2, 3);
+        int n = 3 * PostingList.MIN_DENSE / 2;
+        assertEquals(n + 2, Query.or(dense, rare).evaluate(cache).size());
+        assertEquals(n, cache.get(dense.key()).size());
+    }
+
+    @Test
+    public void parse() {
+        Index index = index("http://x.com/ a b\nhttp://y.com/ b c\n");
+        assertEquals("(a && b)", Query.parse("a b &&", index).key());
+        assertArrayEquals(new int[] {0, 1}, Query.parse(" a c || ", index).evaluate(null).toArray());
+        assertArrayEquals(new int[] {1}, Query.parse("b c && a b && ||  c &&", index)
+            .evaluate(null).toArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseUnderflow() {
+        Query.parse("a &&", index("http://x.com/ a\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseLeftovers() {
+        Query.parse("a b", index("http://x.com/ a\n"));
+    }
+
+    private static final String WORDS = "http://a.com/ java jar\nhttp://b.com/ javascript\n"
+        + "http://c.com/ python jav\nhttp://d.com/ ja j\n";
+
+    private static void checkPrefixes(Index index) {
+        List<String> words = index.terms("jav");
+        Collections.sort(words);
+        assertEquals(Arrays.asList("jav", "java", "javascript"), words);
+        assertEquals(Arrays.asList(), index.terms("javaz"));
+        assertEquals(Arrays.asList("python"), index.terms("p"));
+        assertEquals(7, index.terms("").size());
+
+        Query q = Query.parse("jav*", index);
+        assertEquals("jav*", q.key());
+        assertArrayEquals(new int[] {0, 1, 2}, q.evaluate(null).toArray());
+        // Kept whole inside other operators.
+        assertEquals("(jav* || python)", Query.parse("python jav* ||", index).key());
+        assertArrayEquals(new int[] {2}, Query.parse("jav* py* &&", index).evaluate(null).toArray());
+        assertArrayEquals(new int[] {}, Query.parse("x*", index).evaluate(null).toArray());
+        assertEquals(1, TopK.search(Query.parse("jav*", index), index, 1).length);
+    }
+
+    @Test
+    public void prefixQueries() {
+        checkPrefixes(memoryIndex(WORDS));
+    }
+
+    @Test
+    public void prefixQueriesOnMappedIndex() throws IOException {
+        File f = File.createTempFile("prefix", ".idx");
+        try {
+            IndexFile.write(memoryIndex(WORDS), f);
+            checkPrefixes(IndexFile.load(f));
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void prefixUsesCache() {
+        Index index = memoryIndex(WORDS);
+        QueryCache cache = new QueryCache(10, 1 << 20);
+        Query.parse("ja*", index).evaluate(cache);
+        assertArrayEquals(new int[] {0, 1, 2, 3}, cache.get("ja*").toArray());
+    }
+
+    // Whatever mix of dense and sparse operands, bitmaps and cursors have
+    // to agree with a plain check of every site.
+    @Test
+    public void denseOperands() {
+        Random r = new Random(5);
+        int n = 20000;
+        String[] words = {"all", "even", "third", "rare", "none"};
+        boolean[][] has = new boolean[words.length][n];
+        PostingList.Builder[] b = new PostingList.Builder[words.length];
+        for (int w = 0; w < words.length; w++) {
+            b[w] = new PostingList.Builder();
+        }
+        for (int d = 0; d < n; d++) {
+            boolean[] in = {true, d % 2 == 0, r.nextInt(3) == 0, r.nextInt(500) == 0, false};
+            for (int w = 0; w < words.length; w++) {
+                has[w][d] = in[w];
+                if (in[w]) {
+                    b[w].add(d);
+                }
+            }
+        }
+        Query[] q = new Query[words.length];
+        for (int w = 0; w < words.length; w++) {
+            q[w] = Query.term(words[w], b[w].build());
+        }
+        assertEquals(true, q[0].evaluate(null).isDense());
+        QueryCache cache = new QueryCache(10, 1 << 20);
+        for (int round = 0; round < 30; round++) {
+            int x = r.nextInt(words.length);
+            int y = r.nextInt(words.length);
+            int z = r.nextInt(words.length);
+            boolean and = r.nextBoolean();
+            Query query = Query.or(and ? Query.and(q[x], q[y]) : Query.or(q[x], q[y]), q[z]);
+            query = r.nextBoolean() ? query : Query.and(query, q[r.nextInt(words.length)]);
+            TreeSet<Integer> expected = new TreeSet<Integer>();
+            for (int d = 0; d < n; d++) {
+                if (matches(query, words, has, d)) {
+                    expected.add(d);
+                }
+            }
+            int[] e = expected.stream().mapToInt(Integer::intValue).toArray();
+            assertArrayEquals(e, query.evaluate(null).toArray());
+            assertArrayEquals(e, query.evaluate(cache).toArray());
+            assertArrayEquals(e, drain(query.cursor(cache)));
+        }
+    }
+
+    // Evaluate a key like "((all && even) || rare)" for one site.
+    private static boolean matches(Query q, String[] words, boolean[][] has, int d) {
+        return matches(q.key(), new int[] {0}, words, has, d);
+    }
+
+    private static boolean matches(String key, int[] at, String[] words, boolean[][] has, int d) {
+        if (key.charAt(at[0]) == '(') {
+            at[0]++;
+            boolean result = matches(key, at, words, has, d);
+            while (key.charAt(at[0]) == ' ') {
+                boolean and = key.charAt(at[0] + 1) == '&';
+                at[0] += 4;
+                boolean next = matches(key, at, words, has, d);
+                result = and ? result && next : result || next;
+            }
+            at[0]++;
+            return result;
+        }
+        int end = at[0];
+        while (end < key.length() && Character.isLetter(key.charAt(end))) {
+            end++;
+        }
+        String word = key.substring(at[0], end);
+        at[0] = end;
+        return has[Arrays.asList(words).indexOf(word)][d];
+    }
+}
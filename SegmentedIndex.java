@@ -0,0 +1,582 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * An index that sites can be added to and deleted from while it is used.
+ *
+ * The index is a list of segments: the index we started with (which may
+ * be a MemoryIndex or a MappedIndex and is never changed) followed by
+ * small MemoryIndexes, one for every batch of sites added. Site IDs are
+ * handed out in the order sites are added and never change: segment i
+ * holds the sites from its start up to the start of segment i + 1, and
+ * a word's sites are the concatenation of its posting lists in all
+ * segments, shifted by their starts. Deleting a site only adds its ID to
+ * a bitmap of deleted IDs that are skipped when reading; the URL stays,
+ * so site() still works for IDs a caller got earlier.
+ *
+ * Queries don't build that concatenation: term() hands them a cursor
+ * that moves through the segments' own posting lists, shifting IDs and
+ * skipping deleted ones as it goes, so skip tables and the bitmaps of
+ * dense lists keep working. Deleted sites still count towards a word's
+ * number of sites (and so its weight in ranking) until a merge drops
+ * them. Only postings() copies everything into one list.
+ *
+ * Lots of small segments make postings() slow, so a background thread
+ * merges them. A segment's tier is log4 of its number of sites; once the
+ * newest MERGE_FACTOR segments are in the same tier they are merged into
+ * one (which then is a tier up, and may in turn be merged), so every
+ * site is only copied a logarithmic number of times. If segments of
+ * mixed sizes still pile up beyond MAX_SEGMENTS the smallest neighbours
+ * are merged. Merging drops deleted sites from the postings, and their
+ * IDs from the deleted list. The first segment is never merged, since
+ * rewriting the whole index to add a few sites would defeat the point.
+ *
+ * Everything a query sees lives in an immutable snapshot that changes
+ * are copied into and then published through a volatile field, so
+ * readers never lock and never see half a change. Calls on the index
+ * itself each read the latest snapshot; snapshot() returns one to use
+ * for a whole query. Changes are serialized on the index.
+ */
+public final class SegmentedIndex implements Index, Closeable {
+
+    /** Number of segments of one tier that get merged. */
+    static final int MERGE_FACTOR = 4;
+
+    /** Number of segments after which we merge regardless of tiers. */
+    static final int MAX_SEGMENTS = 16;
+
+    // The segments and deleted IDs at one point in time.
+    private static final class Snapshot implements Index {
+        private final Index first;
+        private final MemoryIndex[] segments;
+        // Start of every segment; the first one starts at 0.
+        private final int[] starts;
+        private final int numSites;
+        private final Bitmap deleted;
+        // Computed on first use; racing threads compute the same thing.
+        private int numTerms = -1;
+
+        Snapshot(Index first, MemoryIndex[] segments, int[] starts, Bitmap deleted) {
+            this.first = first;
+            this.segments = segments;
+            this.starts = starts;
+            this.deleted = deleted;
+            int n = segments.length;
+            this.numSites = n == 0
+                ? first.numSites() : starts[n - 1] + segments[n - 1].numSites();
+        }
+
+        @Override
+        public PostingList postings(String term) {
+            PostingList p = this.first.postings(term);
+            if (this.segments.length == 0 && this.deleted.isEmpty()) {
+                return p;
+            }
+            PostingList.Builder b = new PostingList.Builder();
+            Concat c = this.concat(term, p, this.deleted);
+            for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+                b.add(d, c.tf());
+            }
+            return b.build();
+        }
+
+        @Override
+        public Query term(String term) {
+            PostingList p = this.first.postings(term);
+            Concat rest = this.concat(term, PostingList.EMPTY, Bitmap.EMPTY);
+            if (rest.lists.length == 0 && this.deleted.isEmpty()) {
+                return Query.term(term, p);
+            }
+            int size = p.size();
+            for (PostingList l : rest.lists) {
+                size += l.size();
+            }
+            Bitmap gone = this.deleted;
+            Supplier<Bitmap> bitmap = null;
+            if (p.isDense()) {
+                // The other segments are small, reading them is cheap.
+                bitmap = () -> {
+                    Bitmap.Builder b = new Bitmap.Builder();
+                    Concat c = this.concat(term, PostingList.EMPTY, Bitmap.EMPTY);
+                    for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+                        b.add(d);
+                    }
+                    return Bitmap.andNot(Bitmap.or(p.bitmap(), b.build()), gone);
+                };
+            }
+            return Query.term(term, size, () -> this.concat(term, p, gone), bitmap);
+        }
+
+        // Cursor over first's list p and the term's lists in the other
+        // segments, without the sites in gone.
+        private Concat concat(String term, PostingList p, Bitmap gone) {
+            List<PostingList> lists = new ArrayList<PostingList>();
+            List<Integer> starts = new ArrayList<Integer>();
+            if (!p.isEmpty()) {
+                lists.add(p);
+                starts.add(0);
+            }
+            for (int s = 0; s < this.segments.length; s++) {
+                PostingList l = this.segments[s].postings(term);
+                if (!l.isEmpty()) {
+                    lists.add(l);
+                    starts.add(this.starts[s]);
+                }
+            }
+            int[] a = new int[starts.size()];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = starts.get(i);
+            }
+            return new Concat(lists.toArray(new PostingList[a.length]), a, gone);
+        }
+
+        // Words of all segments, each once.
+        @Override
+        public List<String> terms(String prefix) {
+            BinarySearchTreeMap<String, Boolean> words = new BinarySearchTreeMap<String, Boolean>();
+            for (String w : this.first.terms(prefix)) {
+                words.computeIfAbsent(w, x -> Boolean.TRUE);
+            }
+            for (MemoryIndex m : this.segments) {
+                for (String w : m.terms(prefix)) {
+                    words.computeIfAbsent(w, x -> Boolean.TRUE);
+                }
+            }
+            List<String> all = new ArrayList<String>(words.size());
+            for (String w : words) {
+                all.add(w);
+            }
+            return all;
+        }
+
+        // Segment holding the given site, -1 for the first one.
+        int segment(int doc) {
+            int i = Arrays.binarySearch(this.starts, doc);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        @Override
+        public String site(int doc) {
+            if (doc < 0 || doc >= this.numSites) {
+                throw new IllegalArgumentException("no site with id " + doc);
+            }
+            int s = this.segment(doc);
+            return s < 0 ? this.first.site(doc) : this.segments[s].site(doc - this.starts[s]);
+        }
+
+        @Override
+        public int numSites() {
+            return this.numSites;
+        }
+
+        // Words of the first segment, plus the words of the others that
+        // it doesn't have, counted once.
+        @Override
+        public int numTerms() {
+            if (this.numTerms < 0) {
+                TermDictionary more = new TermDictionary();
+                for (MemoryIndex m : this.segments) {
+                    TermDictionary terms = m.terms();
+                    for (int t = 0; t < terms.size(); t++) {
+                        String w = terms.term(t);
+                        if (this.first.postings(w).isEmpty()) {
+                            more.id(w);
+                        }
+                    }
+                }
+                this.numTerms = this.first.numTerms() + more.size();
+            }
+            return this.numTerms;
+        }
+    }
+
+    // Reads posting lists one after the other, each shifted by its start,
+    // and skips deleted sites. Scores and block bounds come from the list
+    // the target falls into; deleted sites only make the bounds looser.
+    private static final class Concat implements DocCursor {
+        private final PostingList[] lists;
+        private final int[] starts;
+        private final Bitmap deleted;
+        // Made when first needed; the one we read from is lists[current].
+        private final PostingList.Cursor[] cursors;
+        private int current;
+        private int doc = -1;
+
+        Concat(PostingList[] lists, int[] starts, Bitmap deleted) {
+            this.lists = lists;
+            this.starts = starts;
+            this.deleted = deleted;
+            this.cursors = new PostingList.Cursor[lists.length];
+        }
+
+        private PostingList.Cursor cursor(int i) {
+            if (this.cursors[i] == null) {
+                this.cursors[i] = this.lists[i].cursor();
+            }
+            return this.cursors[i];
+        }
+
+        // Last list starting at or before doc, -1 if there is none.
+        private int list(int doc) {
+            int i = Arrays.binarySearch(this.starts, doc);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        @Override
+        public int doc() {
+            return this.doc;
+        }
+
+        // Term frequency of the current site.
+        int tf() {
+            return this.cursor(this.current).tf();
+        }
+
+        @Override
+        public int next() {
+            if (this.doc == END) {
+                return END;
+            }
+            return this.advance(this.doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (this.doc >= target) {
+                return this.doc;
+            }
+            this.current = Math.max(this.current, this.list(target));
+            for (; this.current < this.lists.length; this.current++) {
+                PostingList.Cursor c = this.cursor(this.current);
+                int start = this.starts[this.current];
+                for (int d = c.advance(Math.max(0, target - start)); d != END; d = c.next()) {
+                    if (!this.deleted.contains(d + start)) {
+                        this.doc = d + start;
+                        return this.doc;
+                    }
+                }
+            }
+            this.doc = END;
+            return END;
+        }
+
+        @Override
+        public float score() {
+            if (this.doc < 0 || this.doc == END) {
+                return 0;
+            }
+            return this.cursor(this.current).score();
+        }
+
+        @Override
+        public float blockMax(int target) {
+            int i = this.list(target);
+            if (i < this.current) {
+                i = this.current;
+            }
+            if (i < 0 || i >= this.lists.length) {
+                return 0;
+            }
+            return this.cursor(i).blockMax(Math.max(0, target - this.starts[i]));
+        }
+
+        // Within one list, its blocks; past its end, the gap up to the
+        // next list, where nothing scores.
+        @Override
+        public int blockEnd(int target) {
+            int i = this.list(target);
+            if (i < this.current) {
+                i = this.current;
+            }
+            if (i >= this.lists.length) {
+                return END;
+            }
+            if (i < 0 || target < this.starts[i]) {
+                return this.starts[Math.max(i, 0)] - 1;
+            }
+            int end = this.cursor(i).blockEnd(target - this.starts[i]);
+            if (end != END) {
+                return end + this.starts[i];
+            }
+            return i + 1 < this.lists.length ? this.starts[i + 1] - 1 : END;
+        }
+    }
+
+    private volatile Snapshot snapshot;
+    // URL -> IDs of the live sites with that URL, for delete(); made on
+    // the first delete and kept up to date from then on.
+    private HashMap<String, ArrayList<Integer>> urls;
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "jhugle-merge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Make an index that starts out with the sites of another one.
+     *
+     * @param first The index to start with; it is used as is and must
+     *     not change.
+     */
+    public SegmentedIndex(Index first) {
+        this.snapshot = new Snapshot(first, new MemoryIndex[0], new int[0], Bitmap.EMPTY);
+    }
+
+    /**
+     * The current state of the index, which doesn't change when sites
+     * are added or deleted later. Evaluate a query against one snapshot
+     * so all its words see the same sites.
+     *
+     * @return The current snapshot.
+     */
+    public Index snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Add the sites of a crawl file, numbered after all existing ones.
+     *
+     * @param file The crawl file.
+     * @return Number of sites added.
+     * @throws IOException If reading fails.
+     */
+    public int add(File file) throws IOException {
+        return this.add(MemoryIndex.build(file));
+    }
+
+    /**
+     * Add the sites of an index as a new segment.
+     *
+     * @param segment The sites to add; must not change.
+     * @return Number of sites added.
+     */
+    synchronized int add(MemoryIndex segment) {
+        int n = segment.numSites();
+        if (n == 0) {
+            return 0;
+        }
+        Snapshot s = this.snapshot;
+        int k = s.segments.length;
+        MemoryIndex[] segments = Arrays.copyOf(s.segments, k + 1);
+        int[] starts = Arrays.copyOf(s.starts, k + 1);
+        segments[k] = segment;
+        starts[k] = s.numSites;
+        if (this.urls != null) {
+            for (int d = 0; d < n; d++) {
+                this.remember(segment.site(d), starts[k] + d);
+            }
+        }
+        this.snapshot = new Snapshot(s.first, segments, starts, s.deleted);
+        if (!this.merger.isShutdown()) {
+            this.merger.execute(this::mergeAll);
+        }
+        return n;
+    }
+
+    private void remember(String url, int doc) {
+        this.urls.computeIfAbsent(url, u -> new ArrayList<Integer>(1)).add(doc);
+    }
+
+    /**
+     * Delete all sites with the given URL.
+     *
+     * @param url The URL.
+     * @return Number of sites deleted, 0 if there were none.
+     */
+    public synchronized int delete(String url) {
+        Snapshot s = this.snapshot;
+        if (this.urls == null) {
+            this.urls = new HashMap<String, ArrayList<Integer>>();
+            for (int d = 0; d < s.numSites; d++) {
+                this.remember(s.site(d), d);
+            }
+            for (int d : s.deleted.toArray()) {
+                this.urls.get(s.site(d)).remove(Integer.valueOf(d));
+            }
+        }
+        if (!this.urls.has(url)) {
+            return 0;
+        }
+        ArrayList<Integer> docs = this.urls.remove(url);
+        if (docs.isEmpty()) {
+            return 0;
+        }
+        Bitmap.Builder b = new Bitmap.Builder();
+        for (int d : docs) {
+            b.add(d);
+        }
+        Bitmap deleted = Bitmap.or(s.deleted, b.build());
+        this.snapshot = new Snapshot(s.first, s.segments, s.starts, deleted);
+        return docs.size();
+    }
+
+    /**
+     * Number of segments, not counting the first one.
+     *
+     * @return Number of added segments not yet merged away.
+     */
+    int segments() {
+        return this.snapshot.segments.length;
+    }
+
+    /**
+     * Wait until the merges scheduled so far are done.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void awaitMerges() throws InterruptedException {
+        try {
+            this.merger.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Merge until the policy is happy. Runs on the merge thread only, so
+    // segments are never removed behind its back: between picking a range
+    // and publishing the result, others can only append segments and
+    // delete sites.
+    private void mergeAll() {
+        int[] range;
+        while ((range = pick(this.snapshot)) != null) {
+            this.merge(range[0], range[1]);
+        }
+    }
+
+    // Segments lo (inclusive) to hi to merge next, or null for none.
+    private static int[] pick(Snapshot s) {
+        int n = s.segments.length;
+        if (n >= MERGE_FACTOR) {
+            int tier = tier(s.segments[n - 1]);
+            int lo = n - MERGE_FACTOR;
+            boolean same = true;
+            for (int i = lo; i < n - 1; i++) {
+                same &= tier(s.segments[i]) == tier;
+            }
+            if (same) {
+                return new int[] {lo, n};
+            }
+        }
+        if (n > MAX_SEGMENTS) {
+            int best = 0;
+            for (int i = 1; i + 1 < n; i++) {
+                if (s.segments[i].numSites() + s.segments[i + 1].numSites()
+                    < s.segments[best].numSites() + s.segments[best + 1].numSites()) {
+                    best = i;
+                }
+            }
+            return new int[] {best, best + 2};
+        }
+        return null;
+    }
+
+    private static int tier(MemoryIndex m) {
+        return (31 - Integer.numberOfLeadingZeros(m.numSites())) / 2;
+    }
+
+    // Replace segments lo to hi with one segment holding all their sites
+    // except the deleted ones.
+    private void merge(int lo, int hi) {
+        Snapshot s = this.snapshot;
+        int start = s.starts[lo];
+        int end = start;
+        TermDictionary terms = new TermDictionary();
+        ArrayList<String> sites = new ArrayList<String>();
+        ArrayList<PostingList.Builder> builders = new ArrayList<PostingList.Builder>();
+        for (int i = lo; i < hi; i++) {
+            MemoryIndex m = s.segments[i];
+            for (int d = 0; d < m.numSites(); d++) {
+                sites.add(m.site(d));
+            }
+            TermDictionary local = m.terms();
+            for (int t = 0; t < local.size(); t++) {
+                int id = terms.id(local.term(t));
+                if (id == builders.size()) {
+                    builders.add(new PostingList.Builder());
+                }
+                PostingList.Builder b = builders.get(id);
+                PostingList.Cursor c = m.postings(t).cursor();
+                for (int d = c.next(); d != PostingList.Cursor.END; d = c.next()) {
+                    int g = d + s.starts[i];
+                    if (!s.deleted.contains(g)) {
+                        b.add(g - start, c.tf());
+                    }
+                }
+            }
+            end = s.starts[i] + m.numSites();
+        }
+        PostingList[] postings = new PostingList[builders.size()];
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = builders.get(i).build();
+        }
+        MemoryIndex merged = new MemoryIndex(terms, sites, postings);
+
+        synchronized (this) {
+            Snapshot now = this.snapshot;
+            int n = now.segments.length - (hi - lo) + 1;
+            MemoryIndex[] segments = new MemoryIndex[n];
+            int[] starts = new int[n];
+            System.arraycopy(now.segments, 0, segments, 0, lo);
+            System.arraycopy(now.starts, 0, starts, 0, lo);
+            segments[lo] = merged;
+            starts[lo] = start;
+            System.arraycopy(now.segments, hi, segments, lo + 1, n - lo - 1);
+            System.arraycopy(now.starts, hi, starts, lo + 1, n - lo - 1);
+            // Sites deleted before we started are gone from the merged
+            // postings; the ones deleted since still need filtering.
+            Bitmap.Builder b = new Bitmap.Builder();
+            Bitmap.Cursor old = s.deleted.cursor();
+            for (int d = old.advance(start); d < end; d = old.next()) {
+                b.add(d);
+            }
+            Bitmap deleted = Bitmap.andNot(now.deleted, b.build());
+            this.snapshot = new Snapshot(now.first, segments, starts, deleted);
+        }
+    }
+
+    /**
+     * Stop merging. Scheduled merges are dropped; the index stays usable.
+     */
+    @Override
+    public void close() {
+        this.merger.shutdownNow();
+    }
+
+    @Override
+    public PostingList postings(String term) {
+        return this.snapshot.postings(term);
+    }
+
+    @Override
+    public Query term(String term) {
+        return this.snapshot.term(term);
+    }
+
+    @Override
+    public List<String> terms(String prefix) {
+        return this.snapshot.terms(prefix);
+    }
+
+    @Override
+    public String site(int doc) {
+        return this.snapshot.site(doc);
+    }
+
+    @Override
+    public int numSites() {
+        return this.snapshot.numSites();
+    }
+
+    @Override
+    public int numTerms() {
+        return this.snapshot.numTerms();
+    }
+}
@@ -0,0 +1,179 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+
+public class SegmentedIndexTest {
+
+    private SegmentedIndex index;
+
+    private static MemoryIndex index(String crawl) {
+        MemoryIndex.Builder b = new MemoryIndex.Builder();
+        b.read(ByteBuffer.wrap(crawl.getBytes(StandardCharsets.UTF_8)));
+        return b.build();
+    }
+
+    @After
+    public void close() {
+        if (this.index != null) {
+            this.index.close();
+        }
+    }
+
+    @Test
+    public void addedSitesComeAfterTheOthers() {
+        this.index = new SegmentedIndex(index("http://a x y\nhttp://b y\n"));
+        assertEquals(1, this.index.add(index("http://c x z\n")));
+        assertEquals(3, this.index.numSites());
+        assertEquals(3, this.index.numTerms());
+        assertEquals("http://c", this.index.site(2));
+        assertArrayEquals(new int[] {0, 2}, this.index.postings("x").toArray());
+        assertArrayEquals(new int[] {2}, this.index.postings("z").toArray());
+        assertArrayEquals(new int[] {}, this.index.postings("w").toArray());
+    }
+
+    @Test
+    public void deletedSitesDisappear() {
+        this.index = new SegmentedIndex(index("http://a x\nhttp://b x\n"));
+        this.index.add(index("http://a x\nhttp://c x\n"));
+        assertEquals(2, this.index.delete("http://a"));
+        assertEquals(0, this.index.delete("http://a"));
+        assertEquals(0, this.index.delete("http://nowhere"));
+        assertArrayEquals(new int[] {1, 3}, this.index.postings("x").toArray());
+        // IDs don't change, so old results can still be printed.
+        assertEquals("http://a", this.index.site(2));
+    }
+
+    @Test
+    public void snapshotsDontChange() {
+        this.index = new SegmentedIndex(index("http://a x\n"));
+        Index before = this.index.snapshot();
+        this.index.add(index("http://b x\n"));
+        this.index.delete("http://a");
+        assertEquals(1, before.numSites());
+        assertArrayEquals(new int[] {0}, before.postings("x").toArray());
+        assertArrayEquals(new int[] {1}, this.index.postings("x").toArray());
+    }
+
+    @Test
+    public void mergingKeepsEverything() throws InterruptedException {
+        Random r = new Random(3);
+        StringBuilder all = new StringBuilder();
+        this.index = new SegmentedIndex(index(""));
+        for (int i = 0; i < 200; i++) {
+            StringBuilder crawl = new StringBuilder();
+            for (int j = r.nextInt(4); j >= 0; j--) {
+                crawl.append("http://s").append(all.length()).append(j).append('\n');
+                for (int w = 1 + r.nextInt(5); w > 0; w--) {
+                    crawl.append("w").append(r.nextInt(30)).append(' ');
+                }
+                crawl.append('\n');
+            }
+            all.append(crawl);
+            this.index.add(index(crawl.toString()));
+            if (i % 7 == 0) {
+                this.index.delete(this.index.site(r.nextInt(this.index.numSites())));
+            }
+        }
+        Index before = this.index.snapshot();
+        this.index.awaitMerges();
+        assertTrue(this.index.segments() <= SegmentedIndex.MAX_SEGMENTS);
+        MemoryIndex expected = index(all.toString());
+        assertEquals(expected.numSites(), this.index.numSites());
+        for (int w = 0; w < 30; w++) {
+            PostingList p = this.index.postings("w" + w);
+            assertArrayEquals(before.postings("w" + w).toArray(), p.toArray());
+            // Everything but the deleted sites, with the same tfs.
+            PostingList.Cursor c = p.cursor();
+            PostingList.Cursor e = expected.postings("w" + w).cursor();
+            for (int d = c.next(); d != PostingList.Cursor.END; d = c.next()) {
+                assertEquals(d, e.advance(d));
+                assertEquals(e.tf(), c.tf());
+            }
+        }
+        for (int d = 0; d < expected.numSites(); d++) {
+            assertEquals(expected.site(d), this.index.site(d));
+        }
+    }
+
+    @Test
+    public void prefixesSpanSegments() {
+        this.index = new SegmentedIndex(index("http://a java jar\n"));
+        this.index.add(index("http://b java javascript\n"));
+        List<String> words = this.index.terms("jav");
+        Collections.sort(words);
+        assertEquals(Arrays.asList("java", "javascript"), words);
+        assertArrayEquals(new int[] {0, 1}, Query.parse("jav*", this.index).evaluate(null).toArray());
+    }
+
+    @Test
+    public void queriesReadTheSegments() {
+        Random r = new Random(4);
+        StringBuilder all = new StringBuilder();
+        this.index = new SegmentedIndex(index(""));
+        this.index.close();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder crawl = new StringBuilder();
+            for (int j = r.nextInt(100); j >= 0; j--) {
+                crawl.append("http://s").append(i).append('.').append(j).append(' ');
+                for (int w = 1 + r.nextInt(6); w > 0; w--) {
+                    crawl.append("w").append(r.nextInt(i % 2 == 0 ? 3 : 40)).append(' ');
+                }
+                crawl.append('\n');
+            }
+            all.append(crawl);
+            this.index.add(index(crawl.toString()));
+        }
+        // Nothing deleted: the same ranking as one index of everything.
+        MemoryIndex expected = index(all.toString());
+        String[] queries = {"w0", "w1 w7 &&", "w2 w30 ||", "w0 w1 && w39 ||", "w*"};
+        for (String q : queries) {
+            TopK.Hit[] e = TopK.search(Query.parse(q, expected), expected, 25);
+            TopK.Hit[] a = TopK.search(Query.parse(q, this.index), this.index, 25);
+            assertEquals(e.length, a.length);
+            for (int i = 0; i < e.length; i++) {
+                assertEquals(e[i].doc(), a[i].doc());
+                assertEquals(e[i].score(), a[i].score(), 1e-4);
+            }
+        }
+        for (int d = 0; d < this.index.numSites(); d += 1 + r.nextInt(20)) {
+            this.index.delete(this.index.site(d));
+        }
+        for (String q : queries) {
+            Query query = Query.parse(q, this.index);
+            int[] docs = query.evaluate(null).toArray();
+            assertArrayEquals(Query.parse(q, this.index.snapshot()).evaluate(null).toArray(), docs);
+            for (TopK.Hit h : TopK.search(query, this.index, 25)) {
+                assertTrue(Arrays.binarySearch(docs, h.doc()) >= 0);
+            }
+        }
+        int[] w0 = this.index.postings("w0").toArray();
+        assertArrayEquals(w0, Query.parse("w0", this.index).evaluate(null).toArray());
+        assertArrayEquals(w0, Query.parse("w0 w0 ||", this.index).evaluate(new QueryCache(10, 1 << 20)).toArray());
+    }
+
+    @Test
+    public void denseWordsOfTheFirstSegment() {
+        StringBuilder crawl = new StringBuilder();
+        for (int d = 0; d < 10000; d++) {
+            crawl.append("http://s").append(d).append(d % 3 == 0 ? " x y\n" : " x\n");
+        }
+        this.index = new SegmentedIndex(index(crawl.toString()));
+        this.index.add(index("http://t x y\n"));
+        this.index.delete("http://s3");
+        this.index.delete("http://s4");
+        int[] expected = PostingList.and(this.index.postings("x"), this.index.postings("y")).toArray();
+        assertEquals(3334, expected.length);
+        assertEquals(10000, expected[expected.length - 1]);
+        assertArrayEquals(expected, Query.parse("x y &&", this.index).evaluate(null).toArray());
+        assertEquals(9999, Query.parse("x y ||", this.index).evaluate(null).size());
+    }
+}
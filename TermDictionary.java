@@ -0,0 +1,280 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary assigning dense int IDs to strings.
+ *
+ * The first string added gets ID 0, the next one ID 1, and so on, so IDs
+ * can be used directly as array indices. JHUgle keeps one dictionary for
+ * words; everything downstream (postings, set operations, caches) then
+ * works on ints. Sites are numbered by the index itself, in input order.
+ *
+ * Strings are stored as UTF-8 bytes back to back in one big array, and
+ * found through an open-addressing table of IDs, so there's no String or
+ * node object per entry. This also lets us look up a token directly as
+ * a slice of the input buffer (see Tokenizer): a String is only made for
+ * strings we haven't seen before.
+ */
+public class TermDictionary {
+
+    /** ID returned by lookup() for strings that are not in the dictionary. */
+    public static final int NONE = -1;
+
+    // Slot i of the table holds ID + 1 of the string there, 0 if empty;
+    // hashes[id] caches the hash so growing doesn't have to rehash bytes.
+    private int[] table = new int[64];
+    private int[] hashes = new int[16];
+    private int[] offsets = new int[17];
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    // FNV-1a over the bytes, then spread so the low bits are usable.
+    private static int hash(ByteBuffer b, int start, int length) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < start + length; i++) {
+            h = (h ^ b.get(i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(int id, ByteBuffer b, int start, int length) {
+        int from = this.offsets[id];
+        if (this.offsets[id + 1] - from != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.bytes[from + i] != b.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Slot holding the given bytes, or the empty slot where they'd go.
+    private int slot(int h, ByteBuffer b, int start, int length) {
+        int mask = this.table.length - 1;
+        int i = h & mask;
+        while (this.table[i] != 0) {
+            int id = this.table[i] - 1;
+            if (this.hashes[id] == h && this.matches(id, b, start, length)) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * ID for a slice of UTF-8 bytes, assigning the next free ID if
+     * necessary. Only absolute gets are used on the buffer.
+     *
+     * @param b The buffer.
+     * @param start Index of the first byte.
+     * @param length Number of bytes.
+     * @return The ID of the string those bytes encode.
+     */
+    public int id(ByteBuffer b, int start, int length) {
+        int h = hash(b, start, length);
+        int i = this.slot(h, b, start, length);
+        if (this.table[i] != 0) {
+            return this.table[i] - 1;
+        }
+
+        int id = this.size;
+        if (id == this.hashes.length) {
+            this.hashes = Arrays.copyOf(this.hashes, 2 * id);
+            this.offsets = Arrays.copyOf(this.offsets, 2 * id + 1);
+        }
+        int from = this.offsets[id];
+        if (from + length > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes,
+                Math.max(2 * this.bytes.length, from + length));
+        }
+        b.get(start, this.bytes, from, length);
+        this.offsets[id + 1] = from + length;
+        this.hashes[id] = h;
+        this.table[i] = id + 1;
+        this.size++;
+        if (this.size * 2 > this.table.length) {
+            this.grow();
+        }
+        return id;
+    }
+
+    // Double the table; IDs stay the same, only slots change.
+    private void grow() {
+        this.table = new int[2 * this.table.length];
+        int mask = this.table.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int i = this.hashes[id] & mask;
+            while (this.table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            this.table[i] = id + 1;
+        }
+    }
+
+    private static ByteBuffer encode(String term) {
+        if (term == null) {
+            throw new IllegalArgumentException("cannot handle null term");
+        }
+        return ByteBuffer.wrap(term.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * ID for a string, assigning the next free ID if necessary.
+     *
+     * @param term The string.
+     * @return The ID of term.
+     * @throws IllegalArgumentException If term is null.
+     */
+    public int id(String term) {
+        ByteBuffer b = encode(term);
+        return this.id(b, 0, b.limit());
+    }
+
+    /**
+     * ID for a slice of UTF-8 bytes, without adding it.
+     *
+     * @param b The buffer.
+     * @param start Index of the first byte.
+     * @param length Number of bytes.
+     * @return The ID of those bytes, or NONE if they're not in the dictionary.
+     */
+    public int lookup(ByteBuffer b, int start, int length) {
+        int i = this.slot(hash(b, start, length), b, start, length);
+        return this.table[i] - 1;
+    }
+
+    /**
+     * ID for a string, without adding it.
+     *
+     * @param term The string.
+     * @return The ID of term, or NONE if term is not in the dictionary.
+     */
+    public int lookup(String term) {
+        if (term == null) {
+            return NONE;
+        }
+        ByteBuffer b = encode(term);
+        return this.lookup(b, 0, b.limit());
+    }
+
+    /**
+     * String for an ID.
+     *
+     * @param id The ID.
+     * @return The string with that ID.
+     * @throws IllegalArgumentException If no string has that ID.
+     */
+    public String term(int id) {
+        if (id < 0 || id >= this.size) {
+            throw new IllegalArgumentException("no term with id " + id);
+        }
+        return new String(this.bytes, this.offsets[id],
+            this.offsets[id + 1] - this.offsets[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * UTF-8 bytes for an ID.
+     *
+     * @param id The ID.
+     * @return A copy of the bytes of the string with that ID.
+     * @throws IllegalArgumentException If no string has that ID.
+     */
+    public byte[] bytes(int id) {
+        if (id < 0 || id >= this.size) {
+            throw new IllegalArgumentException("no term with id " + id);
+        }
+        return Arrays.copyOfRange(this.bytes, this.offsets[id], this.offsets[id + 1]);
+    }
+
+    /**
+     * Compare the UTF-8 bytes of a string to others, byte by byte as
+     * unsigned numbers (the order of an IndexFile's term table).
+     *
+     * @param id The ID of the string.
+     * @param b UTF-8 bytes of the other string.
+     * @return Negative, zero or positive if the string with the given ID
+     *     comes before, is equal to, or comes after the other one.
+     */
+    public int compare(int id, byte[] b) {
+        int from = this.offsets[id];
+        return compare(this.bytes, from, this.offsets[id + 1] - from, b, 0, b.length);
+    }
+
+    private static int compare(byte[] a, int aFrom, int aLength,
+                               byte[] b, int bFrom, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.toUnsignedInt(a[aFrom + i]) - Byte.toUnsignedInt(b[bFrom + i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Check whether a string starts with the given UTF-8 bytes.
+     *
+     * @param id The ID of the string.
+     * @param prefix UTF-8 bytes of the prefix.
+     * @return True if the string's bytes start with those of prefix.
+     */
+    public boolean startsWith(int id, byte[] prefix) {
+        int from = this.offsets[id];
+        if (this.offsets[id + 1] - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (this.bytes[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * IDs of all strings in the order of their UTF-8 bytes (see
+     * compare()), so strings with a common prefix are next to each other
+     * and can be found with a binary search.
+     *
+     * @return A new array holding every ID once, sorted.
+     */
+    public int[] sorted() {
+        Integer[] ids = new Integer[this.size];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        Arrays.sort(ids, (a, b) -> compare(
+            this.bytes, this.offsets[a], this.offsets[a + 1] - this.offsets[a],
+            this.bytes, this.offsets[b], this.offsets[b + 1] - this.offsets[b]));
+        int[] sorted = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            sorted[i] = ids[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * Memory taken by the dictionary's arrays.
+     *
+     * @return Their size in bytes, capacity included.
+     */
+    public long sizeInBytes() {
+        return 4L * (this.table.length + this.hashes.length + this.offsets.length)
+            + this.bytes.length;
+    }
+
+    /**
+     * Number of strings.
+     *
+     * @return Number of strings in the dictionary, which is also the next
+     *     ID that will be assigned.
+     */
+    public int size() {
+        return this.size;
+    }
+}
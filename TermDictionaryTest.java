@@ -0,0 +1,142 @@
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TermDictionaryTest {
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void idsInOrderOfFirstUse() {
+        TermDictionary d = new TermDictionary();
+        assertEquals(0, d.size());
+        assertEquals(TermDictionary.NONE, d.lookup("a"));
+        assertEquals(0, d.id("a"));
+        assertEquals(1, d.id("b"));
+        assertEquals(0, d.id("a"));
+        assertEquals(1, d.id("b"));
+        assertEquals(2, d.id(""));
+        assertEquals(3, d.size());
+        assertEquals(0, d.lookup("a"));
+        assertEquals(2, d.lookup(""));
+        assertEquals(TermDictionary.NONE, d.lookup("c"));
+        assertEquals(TermDictionary.NONE, d.lookup(null));
+        assertEquals(3, d.size());
+        assertEquals("b", d.term(1));
+        assertEquals("", d.term(2));
+    }
+
+    @Test
+    public void unknownIdsAndNullRejected() {
+        TermDictionary d = new TermDictionary();
+        d.id("a");
+        for (int id : new int[] {-1, 1}) {
+            try {
+                d.term(id);
+                fail("no term with id " + id);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                d.bytes(id);
+                fail("no term with id " + id);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            d.id(null);
+            fail("null term");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void growsPastInitialTable() {
+        TermDictionary d = new TermDictionary();
+        long empty = d.sizeInBytes();
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(i, d.id("term" + i));
+        }
+        assertEquals(20000, d.size());
+        assertEquals(true, d.sizeInBytes() > empty);
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(i, d.id("term" + i));
+            assertEquals(i, d.lookup("term" + i));
+            assertEquals("term" + i, d.term(i));
+        }
+        assertEquals(20000, d.size());
+        assertEquals(TermDictionary.NONE, d.lookup("term20000"));
+    }
+
+    @Test
+    public void nonAscii() {
+        String[] terms = {
+            "caf\u00e9", "cafe", "\u00e9", "e\u0301", "\u4e2d\u6587", "\ud83d\ude00", "na\u00efve",
+        };
+        TermDictionary d = new TermDictionary();
+        for (int i = 0; i < terms.length; i++) {
+            assertEquals(i, d.id(terms[i]));
+        }
+        for (int i = 0; i < terms.length; i++) {
+            assertEquals(i, d.lookup(terms[i]));
+            assertEquals(terms[i], d.term(i));
+            assertEquals(true, Arrays.equals(utf8(terms[i]), d.bytes(i)));
+        }
+    }
+
+    @Test
+    public void compareAndStartsWith() {
+        TermDictionary d = new TermDictionary();
+        int ab = d.id("ab");
+        int e = d.id("\u00e9t\u00e9");
+        assertEquals(0, d.compare(ab, utf8("ab")));
+        assertEquals(true, d.compare(ab, utf8("abc")) < 0);
+        assertEquals(true, d.compare(ab, utf8("a")) > 0);
+        assertEquals(true, d.compare(ab, utf8("b")) < 0);
+        // Bytes compare unsigned, so non-ASCII comes after ASCII.
+        assertEquals(true, d.compare(e, utf8("z")) > 0);
+        assertEquals(true, d.compare(ab, utf8("\u00e9")) < 0);
+        assertEquals(true, d.startsWith(ab, utf8("")));
+        assertEquals(true, d.startsWith(ab, utf8("a")));
+        assertEquals(true, d.startsWith(ab, utf8("ab")));
+        assertEquals(false, d.startsWith(ab, utf8("abc")));
+        assertEquals(false, d.startsWith(ab, utf8("b")));
+        assertEquals(true, d.startsWith(e, utf8("\u00e9")));
+        assertEquals(false, d.startsWith(e, utf8("e")));
+    }
+
+    @Test
+    public void sortedByUtf8Bytes() {
+        Random r = new Random(4);
+        String letters = "abz\u00e9\u4e2d\ud83d\ude00";
+        TermDictionary d = new TermDictionary();
+        List<String> terms = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder s = new StringBuilder();
+            for (int n = r.nextInt(4); n >= 0; n--) {
+                // The last two chars are one code point, keep them together.
+                int c = r.nextInt(letters.length() - 1);
+                s.append(letters, c, c == letters.length() - 2 ? c + 2 : c + 1);
+            }
+            if (d.lookup(s.toString()) == TermDictionary.NONE) {
+                terms.add(s.toString());
+            }
+            d.id(s.toString());
+        }
+        terms.sort((a, b) -> Arrays.compareUnsigned(utf8(a), utf8(b)));
+        int[] sorted = d.sorted();
+        assertEquals(d.size(), sorted.length);
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(terms.get(i), d.term(sorted[i]));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits UTF-8 crawl text into tokens without copying it.
+ *
+ * The tokenizer walks the bytes of a buffer (typically a memory-mapped
+ * part of the crawl file) and reports each token as a slice, a start
+ * index and a length into that buffer. Nothing is allocated per token:
+ * callers that need the token as a String call text(), and callers that
+ * only need its ID hand the slice to TermDictionary.
+ *
+ * Tokens are separated by the same whitespace as the regular expression
+ * "\\s+" (space, tab, vertical tab, form feed) and by line breaks ('\n',
+ * '\r'). To stay compatible with the original line reader, a line that
+ * starts with whitespace is skipped entirely.
+ */
+public final class Tokenizer {
+
+    private final ByteBuffer buffer;
+    private final int end;
+    private int pos;
+    private int start;
+    private int length;
+    private boolean lineStart = true;
+
+    /**
+     * Tokenize the bytes from the buffer's position to its limit. The
+     * buffer itself is never modified (we only use absolute gets) and
+     * should start at the beginning of a line.
+     *
+     * @param buffer The bytes to tokenize.
+     */
+    public Tokenizer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.pos = buffer.position();
+        this.end = buffer.limit();
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == 0x0b || b == '\f';
+    }
+
+    private static boolean isBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Move on to the next token.
+     *
+     * @return True if there is one, false at the end of the buffer.
+     */
+    public boolean next() {
+        ByteBuffer b = this.buffer;
+        int i = this.pos;
+        while (i < this.end) {
+            byte c = b.get(i);
+            if (isBreak(c)) {
+                i++;
+                this.lineStart = true;
+            } else if (isSpace(c) && this.lineStart) {
+                // Line starts with blanks; skip it.
+                while (i < this.end && !isBreak(b.get(i))) {
+                    i++;
+                }
+            } else if (isSpace(c)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        this.lineStart = false;
+        if (i == this.end) {
+            this.pos = i;
+            return false;
+        }
+        int s = i;
+        while (i < this.end) {
+            byte c = b.get(i);
+            if (isSpace(c) || isBreak(c)) {
+                break;
+            }
+            i++;
+        }
+        this.start = s;
+        this.length = i - s;
+        this.pos = i;
+        return true;
+    }
+
+    /**
+     * Buffer the tokens are sliced from.
+     *
+     * @return The buffer given to the constructor.
+     */
+    public ByteBuffer buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Where the current token starts.
+     *
+     * @return Index of the token's first byte in buffer().
+     */
+    public int start() {
+        return this.start;
+    }
+
+    /**
+     * How long the current token is.
+     *
+     * @return Number of bytes in the token.
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Check whether the current token is a URL, meaning that its seventh
+     * character is a '/' as in "http://" and "https:/". Counts characters
+     * the way String.charAt() does, without making a String.
+     *
+     * @return True if the token is a URL.
+     */
+    public boolean isUrl() {
+        int chars = 0;
+        for (int i = this.start; i < this.start + this.length; i++) {
+            int c = this.buffer.get(i) & 0xff;
+            if ((c & 0xc0) == 0x80) {
+                continue;
+            }
+            if (chars == 6) {
+                return c == '/';
+            }
+            // Four byte sequences become two UTF-16 chars.
+            chars += c >= 0xf0 ? 2 : 1;
+            if (chars > 6) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The current token as a String.
+     *
+     * @return The decoded token.
+     */
+    public String text() {
+        byte[] bytes = new byte[this.length];
+        this.buffer.get(this.start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
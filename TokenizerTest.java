@@ -0,0 +1,93 @@
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TokenizerTest {
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> tokens(String text) {
+        Tokenizer t = new Tokenizer(bytes(text));
+        List<String> tokens = new ArrayList<String>();
+        while (t.next()) {
+            tokens.add(t.text());
+        }
+        return tokens;
+    }
+
+    @Test
+    public void whitespace() {
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), tokens("a b\tc\u000bd\fe"));
+        assertEquals(Arrays.asList("a", "b"), tokens("a   \t b  "));
+        assertEquals(Arrays.asList(), tokens(""));
+        assertEquals(Arrays.asList(), tokens("\n\n"));
+    }
+
+    @Test
+    public void lineBreaks() {
+        assertEquals(Arrays.asList("a", "b", "c", "d"), tokens("a\r\nb\rc\n\nd"));
+        assertEquals(Arrays.asList("a", "b"), tokens("a\r\n\r\nb\r\n"));
+    }
+
+    @Test
+    public void linesStartingWithBlanksAreSkipped() {
+        assertEquals(Arrays.asList("a", "e"), tokens("a\n  b c\n\td\ne"));
+        assertEquals(Arrays.asList("y"), tokens(" x\ny"));
+        assertEquals(Arrays.asList("a", "c"), tokens("a\r\n b\nc"));
+        // Blanks after a token on the same line don't count.
+        assertEquals(Arrays.asList("a", "b"), tokens("a \nb"));
+    }
+
+    @Test
+    public void slicesOfTheBuffer() {
+        ByteBuffer b = bytes("skip this\nword");
+        b.position(10);
+        Tokenizer t = new Tokenizer(b);
+        assertEquals(true, t.next());
+        assertEquals(10, t.start());
+        assertEquals(4, t.length());
+        assertEquals("word", t.text());
+        assertEquals(false, t.next());
+        assertEquals(10, b.position());
+    }
+
+    @Test
+    public void urls() {
+        String[] tokens = {
+            "http://a.com/", "https:/x", "ftp://x", "abcdef/", "abcdefg/", "short",
+            "\u00e9bcdef/x", "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9/",
+            "\ud83d\ude00bcde/x", "\ud83d\ude00bcdef/", "\u4e2d\u6587\u4e2d\u6587\u4e2d\u6587/",
+        };
+        for (String token : tokens) {
+            Tokenizer t = new Tokenizer(bytes(token));
+            assertEquals(true, t.next());
+            boolean expected = token.length() > 6 && token.charAt(6) == '/';
+            assertEquals(expected, t.isUrl());
+        }
+        assertEquals(Arrays.asList("http://\u00e9.com/", "caf\u00e9"), tokens("http://\u00e9.com/ caf\u00e9"));
+    }
+
+    @Test
+    public void dictionaryLookupsOfSlices() {
+        String text = "http://a.com/ caf\u00e9 java\r\njava \u4e2d\u6587 \ud83d\ude00 caf\u00e9\n  hidden\nx";
+        ByteBuffer b = bytes(text);
+        TermDictionary slices = new TermDictionary();
+        TermDictionary strings = new TermDictionary();
+        Tokenizer t = new Tokenizer(b);
+        while (t.next()) {
+            int id = slices.id(b, t.start(), t.length());
+            assertEquals(strings.id(t.text()), id);
+            assertEquals(id, slices.lookup(t.text()));
+            assertEquals(id, strings.lookup(b, t.start(), t.length()));
+            assertEquals(t.text(), slices.term(id));
+        }
+        assertEquals(6, slices.size());
+        assertEquals(TermDictionary.NONE, slices.lookup("hidden"));
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the best few results of a query.
+ *
+ * Documents are scored with TF-IDF (see Query) and we keep the k best
+ * seen so far in a min-heap, so the worst of them is at the top and its
+ * score is the threshold a document has to beat to get in. Nothing is
+ * sorted except those k results at the end.
+ *
+ * Once the heap is full we also skip documents we know can't beat the
+ * threshold: cursors give an upper bound for the scores in the block of
+ * documents ahead of them (from the highest tf in each block of every
+ * posting list, see PostingList), and while that bound doesn't beat the
+ * threshold we move on to the next block without decoding or scoring
+ * anything in between. As the threshold rises, more and more of the
+ * result set gets skipped this way.
+ *
+ * Ties are broken by site ID, lower first, so the results don't depend
+ * on how much got skipped.
+ */
+public final class TopK {
+
+    /**
+     * A result: a site and its score.
+     */
+    public static final class Hit {
+        private final int doc;
+        private final float score;
+
+        Hit(int doc, float score) {
+            this.doc = doc;
+            this.score = score;
+        }
+
+        /**
+         * The site.
+         *
+         * @return Site ID.
+         */
+        public int doc() {
+            return this.doc;
+        }
+
+        /**
+         * How well the site matches.
+         *
+         * @return The score, higher is better.
+         */
+        public float score() {
+            return this.score;
+        }
+
+        @Override
+        public String toString() {
+            return this.doc + ":" + this.score;
+        }
+    }
+
+    // Best first: higher score, then lower site ID.
+    private static final Comparator<Hit> BEST_FIRST = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit a, Hit b) {
+            int c = Float.compare(b.score, a.score);
+            return c != 0 ? c : Integer.compare(a.doc, b.doc);
+        }
+    };
+
+    private TopK() {}
+
+    /**
+     * The k best results of a query.
+     *
+     * @param query The query.
+     * @param index The index the query's words come from.
+     * @param k How many results we want.
+     * @return Up to k results, best first.
+     * @throws IllegalArgumentException If k is not positive.
+     */
+    public static Hit[] search(Query query, Index index, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("need k > 0, got " + k);
+        }
+        DocCursor c = query.scorer(index.numSites());
+        // Worst of the best at the top.
+        PriorityQueue<Hit> heap = new PriorityQueue<Hit>(k + 1, BEST_FIRST.reversed());
+        int target = 0;
+        while (true) {
+            if (heap.size() == k) {
+                // Later documents lose ties, so they have to score
+                // strictly higher than the worst hit to get in.
+                float threshold = heap.peek().score;
+                while (target != DocCursor.END && c.blockMax(target) <= threshold) {
+                    int end = c.blockEnd(target);
+                    target = end == DocCursor.END ? end : end + 1;
+                }
+                if (target == DocCursor.END) {
+                    break;
+                }
+            }
+            int d = c.advance(target);
+            if (d == DocCursor.END) {
+                break;
+            }
+            float score = c.score();
+            if (heap.size() < k) {
+                heap.add(new Hit(d, score));
+            } else if (score > heap.peek().score) {
+                heap.poll();
+                heap.add(new Hit(d, score));
+            }
+            target = d + 1;
+        }
+        Hit[] hits = heap.toArray(new Hit[heap.size()]);
+        Arrays.sort(hits, BEST_FIRST);
+        return hits;
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TopKTest {
+
+    private static MemoryIndex index(String crawl) {
+        MemoryIndex.Builder b = new MemoryIndex.Builder();
+        b.read(ByteBuffer.wrap(crawl.getBytes(StandardCharsets.UTF_8)));
+        return b.build();
+    }
+
+    private static int[] docs(TopK.Hit[] hits) {
+        int[] d = new int[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            d[i] = hits[i].doc();
+        }
+        return d;
+    }
+
+    // All hits, scored one by one and sorted, to check TopK against.
+    private static List<TopK.Hit> everything(Query q, Index index) {
+        List<TopK.Hit> all = new ArrayList<TopK.Hit>();
+        DocCursor c = q.scorer(index.numSites());
+        for (int d = c.next(); d != DocCursor.END; d = c.next()) {
+            all.add(new TopK.Hit(d, c.score()));
+        }
+        all.sort((a, b) -> a.score() != b.score()
+            ? Float.compare(b.score(), a.score()) : Integer.compare(a.doc(), b.doc()));
+        return all;
+    }
+
+    @Test
+    public void frequentWordsRankFirst() {
+        Index index = index("http://a.com/ java\n"
+            + "http://b.com/ java java java tutorial\n"
+            + "http://c.com/ java java\n"
+            + "http://d.com/ python\n");
+        Query java = Query.parse("java", index);
+        assertArrayEquals(new int[] {1, 2, 0}, docs(TopK.search(java, index, 10)));
+        assertArrayEquals(new int[] {1, 2}, docs(TopK.search(java, index, 2)));
+        // Rare words are worth more than common ones.
+        Query or = Query.parse("java tutorial ||", index);
+        assertEquals(1, TopK.search(or, index, 1)[0].doc());
+        Query any = Query.parse("java python ||", index);
+        assertArrayEquals(new int[] {1, 3, 2, 0}, docs(TopK.search(any, index, 10)));
+    }
+
+    @Test
+    public void sameAsScoringEverything() {
+        Random r = new Random(3);
+        StringBuilder crawl = new StringBuilder();
+        for (int s = 0; s < 3000; s++) {
+            crawl.append("http://site").append(s).append(".com/");
+            int words = 1 + r.nextInt(30);
+            for (int w = 0; w < words; w++) {
+                crawl.append(" w").append(Math.min(r.nextInt(20), r.nextInt(20)));
+            }
+            crawl.append('\n');
+        }
+        MemoryIndex index = index(crawl.toString());
+        String[] queries = {"w0", "w3", "w0 w1 &&", "w2 w5 ||", "w0 w7 || w1 &&",
+                            "w15 w16 || w17 || w0 &&", "nope", "w1 nope &&", "w1 nope ||"};
+        for (String text : queries) {
+            Query q = Query.parse(text, index);
+            List<TopK.Hit> all = everything(q, index);
+            for (int k : new int[] {1, 5, 10, 100, 10000}) {
+                TopK.Hit[] hits = TopK.search(q, index, k);
+                assertEquals(Math.min(k, all.size()), hits.length);
+                for (int i = 0; i < hits.length; i++) {
+                    assertEquals(all.get(i).doc(), hits[i].doc());
+                    assertEquals(all.get(i).score(), hits[i].score(), 0);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needPositiveK() {
+        Index index = index("http://a.com/ java\n");
+        TopK.search(Query.parse("java", index), index, 0);
+    }
+}
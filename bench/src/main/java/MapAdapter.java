@@ -0,0 +1,73 @@
+import java.util.Iterator;
+import java.util.function.Supplier;
+import jhugle.bench.BenchMap;
+
+/**
+ * One of our maps seen as a BenchMap. This class is in the default
+ * package like the maps, so it can name them; MapBenchmark only loads it
+ * by name, once per trial, and then calls the maps through BenchMap.
+ *
+ * @param <K> Type of keys.
+ * @param <V> Type of values.
+ */
+public final class MapAdapter<K extends Comparable<? super K>, V> implements BenchMap<K, V> {
+
+    private final Map<K, V> map;
+
+    private MapAdapter(Map<K, V> map) {
+        this.map = map;
+    }
+
+    /**
+     * Factory for empty maps of one of our implementations.
+     *
+     * @param impl Name of the class: HashMap, OpenHashMap or
+     *     BinarySearchTreeMap.
+     * @param <K> Type of keys.
+     * @param <V> Type of values.
+     * @return Something that makes a new empty map on every call.
+     * @throws IllegalArgumentException If there's no map by that name.
+     */
+    public static <K extends Comparable<? super K>, V> Supplier<BenchMap<K, V>> factory(String impl) {
+        switch (impl) {
+            case "HashMap":
+                return () -> new MapAdapter<K, V>(new HashMap<K, V>());
+            case "OpenHashMap":
+                return () -> new MapAdapter<K, V>(new OpenHashMap<K, V>());
+            case "BinarySearchTreeMap":
+                return () -> new MapAdapter<K, V>(new BinarySearchTreeMap<K, V>());
+            default:
+                throw new IllegalArgumentException("unknown map " + impl);
+        }
+    }
+
+    @Override
+    public void insert(K k, V v) {
+        this.map.insert(k, v);
+    }
+
+    @Override
+    public V remove(K k) {
+        return this.map.remove(k);
+    }
+
+    @Override
+    public void put(K k, V v) {
+        this.map.put(k, v);
+    }
+
+    @Override
+    public V get(K k) {
+        return this.map.get(k);
+    }
+
+    @Override
+    public boolean has(K k) {
+        return this.map.has(k);
+    }
+
+    @Override
+    public Iterator<K> iterator() {
+        return this.map.iterator();
+    }
+}
@@ -0,0 +1,24 @@
+package jhugle.bench;
+
+/**
+ * The operations MapBenchmark measures.
+ *
+ * Our Map interface is in the default package, which code in a package
+ * can't name, so the benchmark drives every map through this interface
+ * instead: MapAdapter wraps our maps, MapBenchmark.JdkMap the java.util
+ * ones. Both throw IllegalArgumentException where our Map does.
+ *
+ * @param <K> Type of keys.
+ * @param <V> Type of values.
+ */
+public interface BenchMap<K, V> extends Iterable<K> {
+    void insert(K k, V v);
+
+    V remove(K k);
+
+    void put(K k, V v);
+
+    V get(K k);
+
+    boolean has(K k);
+}
@@ -0,0 +1,320 @@
+package jhugle.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * JMH benchmarks for the Map implementations.
+ *
+ * Every implementation is driven through the same BenchMap interface so
+ * the numbers are comparable: our maps are wrapped in MapAdapter, and
+ * java.util.HashMap and java.util.TreeMap in a thin adapter here to serve
+ * as a baseline. Benchmarks run in Throughput mode (ops/sec); add
+ * "-bm sample" for a latency histogram, which is where the p99 comes
+ * from, and "-prof gc" for the allocation rate (gc.alloc.rate.norm is
+ * bytes per operation).
+ *
+ * Workloads:
+ *   uniform - random distinct keys, lookups uniformly distributed
+ *   zipf    - same keys, lookups Zipf-distributed (s = 1) over them
+ *   sorted  - keys inserted in ascending order (worst case for a
+ *             BST without rebalancing)
+ *   corpus  - words from the corpus file in order of appearance,
+ *             lookups replay the actual term stream
+ *
+ * The fill benchmark builds a complete map of the given size per
+ * operation, so its throughput is maps/sec rather than keys/sec.
+ *
+ * The default grid (5 maps, 3 sizes, 4 workloads, 6 benchmarks) takes
+ * about 45 minutes; 10M keys take long enough to fill that they are
+ * only run when asked for with "-p size=10000000".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class MapBenchmark {
+
+    // Number of precomputed lookup keys; a power of two so we can wrap
+    // around with a mask instead of a division.
+    private static final int PROBES = 1 << 16;
+
+    @Param({"HashMap", "OpenHashMap", "BinarySearchTreeMap",
+            "java.util.HashMap", "java.util.TreeMap"})
+    public String impl;
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param({"uniform", "zipf", "sorted", "corpus"})
+    public String workload;
+
+    @Param({"phf1.txt"})
+    public String corpus;
+
+    private String[] keys;
+    private String[] probes;
+    private String[] fresh;
+    private Supplier<BenchMap<String, Integer>> factory;
+    private BenchMap<String, Integer> map;
+    private int next;
+
+    // Adapter so the java.util maps can be benchmarked like ours; the
+    // checks mirror what our implementations do.
+    private static final class JdkMap<K, V> implements BenchMap<K, V> {
+        private final java.util.Map<K, V> map;
+
+        JdkMap(java.util.Map<K, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public void insert(K k, V v) {
+            if (k == null || this.map.putIfAbsent(k, v) != null) {
+                throw new IllegalArgumentException("cannot insert " + k);
+            }
+        }
+
+        @Override
+        public V remove(K k) {
+            if (k == null || !this.map.containsKey(k)) {
+                throw new IllegalArgumentException("cannot find key " + k);
+            }
+            return this.map.remove(k);
+        }
+
+        @Override
+        public void put(K k, V v) {
+            if (k == null || this.map.replace(k, v) == null) {
+                throw new IllegalArgumentException("cannot find key " + k);
+            }
+        }
+
+        @Override
+        public V get(K k) {
+            V v = k == null ? null : this.map.get(k);
+            if (v == null) {
+                throw new IllegalArgumentException("cannot find key " + k);
+            }
+            return v;
+        }
+
+        @Override
+        public boolean has(K k) {
+            return k != null && this.map.containsKey(k);
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return this.map.keySet().iterator();
+        }
+    }
+
+    // Our maps can only be named from the default package, so those come
+    // from MapAdapter, which we look up by name.
+    @SuppressWarnings("unchecked")
+    private static Supplier<BenchMap<String, Integer>> factory(String impl) {
+        switch (impl) {
+            case "java.util.HashMap":
+                return () -> new JdkMap<>(new java.util.HashMap<>());
+            case "java.util.TreeMap":
+                return () -> new JdkMap<>(new java.util.TreeMap<>());
+            default:
+                try {
+                    return (Supplier<BenchMap<String, Integer>>) Class.forName("MapAdapter")
+                        .getMethod("factory", String.class).invoke(null, impl);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("cannot make " + impl, e);
+                }
+        }
+    }
+
+    // Words from the corpus file in order of appearance, URLs skipped.
+    private static List<String> readCorpus(String file) throws IOException {
+        Pattern pattern = Pattern.compile("\\s+");
+        List<String> words = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                for (String word : pattern.split(line)) {
+                    if (word.length() > 6 && word.charAt(6) == '/') {
+                        continue;
+                    }
+                    if (word.length() > 0) {
+                        words.add(word);
+                    }
+                }
+            }
+        }
+        return words;
+    }
+
+    // Distinct keys in insertion order plus the lookup sequence. Keys
+    // come in two halves: the first size keys go into the map, the next
+    // size keys are guaranteed absent and are used by insertRemove.
+    private void makeKeys(Random random) throws IOException {
+        this.keys = new String[this.size];
+        this.fresh = new String[this.size];
+        this.probes = new String[PROBES];
+
+        if (this.workload.equals("corpus")) {
+            List<String> stream = readCorpus(this.corpus);
+            if (stream.isEmpty()) {
+                throw new IllegalArgumentException("empty corpus " + this.corpus);
+            }
+            // The corpus has fewer distinct words than we need for the
+            // larger sizes; cycle through it with a generation suffix.
+            Set<String> seen = new HashSet<String>();
+            int n = 0;
+            for (int gen = 0; n < 2 * this.size; gen++) {
+                for (String word : stream) {
+                    String key = gen == 0 ? word : word + "#" + gen;
+                    if (n < 2 * this.size && seen.add(key)) {
+                        if (n < this.size) {
+                            this.keys[n] = key;
+                        } else {
+                            this.fresh[n - this.size] = key;
+                        }
+                        n++;
+                    }
+                }
+            }
+            // Replay the term stream; words that did not make it into the
+            // map (small sizes) are replaced by a key that did.
+            Set<String> mapped = new HashSet<String>(Arrays.asList(this.keys));
+            for (int i = 0; i < PROBES; i++) {
+                String word = stream.get(i % stream.size());
+                this.probes[i] = mapped.contains(word)
+                    ? word : this.keys[i % this.size];
+            }
+            return;
+        }
+
+        Set<Integer> seen = new HashSet<Integer>();
+        int[] ids = new int[2 * this.size];
+        for (int i = 0; i < ids.length; i++) {
+            int id;
+            do {
+                id = random.nextInt(Integer.MAX_VALUE);
+            } while (!seen.add(id));
+            ids[i] = id;
+        }
+        if (this.workload.equals("sorted")) {
+            Arrays.sort(ids, 0, this.size);
+        }
+        for (int i = 0; i < this.size; i++) {
+            // Zero padding keeps String order the same as int order.
+            this.keys[i] = String.format("k%010d", ids[i]);
+            this.fresh[i] = String.format("k%010d", ids[this.size + i]);
+        }
+
+        if (this.workload.equals("zipf")) {
+            // Inverse transform sampling over the harmonic CDF.
+            double[] cdf = new double[this.size];
+            double sum = 0;
+            for (int i = 0; i < this.size; i++) {
+                sum += 1.0 / (i + 1);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < PROBES; i++) {
+                int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                if (rank < 0) {
+                    rank = -rank - 1;
+                }
+                this.probes[i] = this.keys[Math.min(rank, this.size - 1)];
+            }
+        } else {
+            for (int i = 0; i < PROBES; i++) {
+                this.probes[i] = this.keys[random.nextInt(this.size)];
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUpKeys() throws IOException {
+        this.factory = factory(this.impl);
+        this.makeKeys(new Random(42));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpMap() {
+        this.map = this.factory.get();
+        for (int i = 0; i < this.size; i++) {
+            this.map.insert(this.keys[i], i);
+        }
+        this.next = 0;
+    }
+
+    private String nextProbe() {
+        String k = this.probes[this.next];
+        this.next = (this.next + 1) & (PROBES - 1);
+        return k;
+    }
+
+    @Benchmark
+    public BenchMap<String, Integer> fill() {
+        BenchMap<String, Integer> m = this.factory.get();
+        for (int i = 0; i < this.size; i++) {
+            m.insert(this.keys[i], i);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public boolean has() {
+        return this.map.has(this.nextProbe());
+    }
+
+    @Benchmark
+    public Integer get() {
+        return this.map.get(this.nextProbe());
+    }
+
+    @Benchmark
+    public void put() {
+        this.map.put(this.nextProbe(), this.next);
+    }
+
+    // Insert an absent key and remove it again so the map stays at the
+    // same size for the whole iteration.
+    @Benchmark
+    public Integer insertRemove() {
+        String k = this.fresh[this.next % this.size];
+        this.next = (this.next + 1) & (PROBES - 1);
+        this.map.insert(k, this.next);
+        return this.map.remove(k);
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        for (String k : this.map) {
+            bh.consume(k);
+        }
+    }
+}